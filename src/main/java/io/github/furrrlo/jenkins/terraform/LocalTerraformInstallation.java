@@ -1,5 +1,6 @@
 package io.github.furrrlo.jenkins.terraform;
 
+import hudson.Util;
 import hudson.util.LogTaskListener;
 import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.terraform.Configuration;
@@ -9,6 +10,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
@@ -16,23 +18,44 @@ import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class LocalTerraformInstallation extends TerraformInstallation {
 
     private static final String WORK_DIR_NAME = "terraform-cloud-plugin";
+    private static final String BATCH_WORK_DIR_NAME = "terraform-cloud-plugin-batch";
     private static final String STATE_FILE_NAME = "terraform-cloud-plugin.tfstate";
     private static final String VARIABLES_FILE_NAME = "terraform-cloud-plugin.tfvars";
+    private static final String GOLDEN_MARKER_FILE_NAME = ".terraform-cloud-plugin-golden";
+    private static final String GOLDEN_SOURCE_FILE_NAME = ".terraform-cloud-plugin-golden-source";
+    private static final String LOG_FILE_NAME = "terraform-cloud-plugin.log";
+    private static final String DOT_TERRAFORM_DIR_NAME = ".terraform";
+    // Files which are never copied to or from remote executors
+    private static final String REMOTE_EXCLUDES = DOT_TERRAFORM_DIR_NAME + "/**," + LOG_FILE_NAME + "*";
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalTerraformInstallation.class);
+    private static final Pattern VERSION_REGEX = Pattern.compile("(\\d+)\\.(\\d+)\\.(\\d+)\\S*");
+    private static final long VERSION_TIMEOUT_SECONDS = 60;
+
+    private final File executable;
+    private final @Nullable String version;
 
     public LocalTerraformInstallation(TerraformInstallation actualInstallation) throws IOException, InterruptedException {
         this(actualInstallation.forNode(Jenkins.get(), new LogTaskListener(
@@ -42,11 +65,82 @@ public class LocalTerraformInstallation extends TerraformInstallation {
     }
 
     private LocalTerraformInstallation(TerraformInstallation actualInstallation,
-                                       @SuppressWarnings("unused") Void ignore) {
+                                       @SuppressWarnings("unused") Void ignore) throws IOException, InterruptedException {
         super(actualInstallation.getName(), actualInstallation.getHome(), actualInstallation.getProperties());
+        this.executable = findLocalExecutable();
+        this.version = detectVersion(executable);
     }
 
-    public File getLocalExecutable() throws FileNotFoundException {
+    public File getLocalExecutable() {
+        return executable;
+    }
+
+    /**
+     * @return the detected Terraform version, or null if it couldn't be detected
+     */
+    public @Nullable String getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns whether the installation is at least the given version, assuming it is if it couldn't be detected.
+     */
+    public boolean isAtLeastVersion(int major, int minor, int patch) {
+        if (version == null)
+            return true;
+
+        final Matcher matcher = VERSION_REGEX.matcher(version);
+        if (!matcher.find())
+            return true;
+
+        final int[] actual = {
+                Integer.parseInt(matcher.group(1)),
+                Integer.parseInt(matcher.group(2)),
+                Integer.parseInt(matcher.group(3))
+        };
+        final int[] expected = { major, minor, patch };
+        for (int i = 0; i < actual.length; i++)
+            if (actual[i] != expected[i])
+                return actual[i] > expected[i];
+        return true;
+    }
+
+    private static @Nullable String detectVersion(File executable) throws InterruptedException {
+        try {
+            final ProcessBuilder pb = new ProcessBuilder(executable.getAbsolutePath(), "version").redirectErrorStream(true);
+            // Don't let the upgrade check go over the network
+            pb.environment().put("CHECKPOINT_DISABLE", "1");
+            final Process process = pb.start();
+
+            final String firstLine;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), Charset.defaultCharset()))) {
+                firstLine = reader.readLine();
+                String line;
+                do {
+                    line = reader.readLine();
+                } while (line != null);
+            }
+
+            if (!process.waitFor(VERSION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroy();
+                LOGGER.warn("Terraform version detection of {} timed out", executable);
+                return null;
+            }
+
+            final Matcher matcher = firstLine != null ? VERSION_REGEX.matcher(firstLine) : null;
+            if (matcher == null || !matcher.find()) {
+                LOGGER.warn("Couldn't detect Terraform version of {} from '{}'", executable, firstLine);
+                return null;
+            }
+
+            return matcher.group();
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't detect Terraform version of {}", executable, e);
+            return null;
+        }
+    }
+
+    private File findLocalExecutable() throws FileNotFoundException {
         final String homeStr = getHome();
         if(homeStr == null)
             throw new FileNotFoundException(Messages.HomeDirectoryNotFound(null));
@@ -62,11 +156,54 @@ public class LocalTerraformInstallation extends TerraformInstallation {
         return executable;
     }
 
+    static File getWorkDirsRoot(File rootDirectory) {
+        return new File(rootDirectory, WORK_DIR_NAME);
+    }
+
+    static File getStateFile(File workingDirectory) {
+        return new File(workingDirectory, STATE_FILE_NAME);
+    }
+
+    static File getLogFile(File workingDirectory) {
+        return new File(workingDirectory, LOG_FILE_NAME);
+    }
+
+    static File getBatchWorkDirsRoot(File rootDirectory) {
+        return new File(rootDirectory, BATCH_WORK_DIR_NAME);
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        Files.walkFileTree(path, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
     public WorkDir setupWorkDir(File rootDirectory,
                                 String workDirectoryName,
                                 Configuration config,
                                 Map<String, String> variables) throws IOException {
-        final File workingDirectory = new File(rootDirectory, WORK_DIR_NAME + File.separator + workDirectoryName);
+        return setupWorkDir(rootDirectory, new File(getWorkDirsRoot(rootDirectory), workDirectoryName), config, variables);
+    }
+
+    public WorkDir setupWorkDir(File rootDirectory,
+                                File workingDirectory,
+                                Configuration config,
+                                Map<String, String> variables) throws IOException {
         Files.createDirectories(workingDirectory.toPath());
 
         final File stateFile = new File(workingDirectory, STATE_FILE_NAME);
@@ -97,7 +234,7 @@ public class LocalTerraformInstallation extends TerraformInstallation {
                 Files.walkFileTree(configToCopy, new SimpleFileVisitor<>() {
                     @Override
                     public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                        Files.createDirectory(workingDirectory.toPath().resolve(configToCopy.relativize(dir)));
+                        Files.createDirectories(workingDirectory.toPath().resolve(configToCopy.relativize(dir)));
                         return FileVisitResult.CONTINUE;
                     }
 
@@ -114,11 +251,160 @@ public class LocalTerraformInstallation extends TerraformInstallation {
         }
     }
 
+    /**
+     * Hashes everything which can change the result of a Terraform init: the configuration
+     * and the Terraform executable itself.
+     */
+    public String hashConfiguration(File rootDirectory, Configuration config) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Missing SHA-256 digest", e);
+        }
+
+        final File executable = getLocalExecutable();
+        digest.update((executable.getAbsolutePath() + '\0' + executable.length() + '\0' + executable.lastModified() + '\0')
+                .getBytes(StandardCharsets.UTF_8));
+        digest.update((config.getMode() + "\0").getBytes(StandardCharsets.UTF_8));
+        switch (config.getMode()) {
+            case INLINE:
+                digest.update(Util.fixNull(config.getInlineConfig()).getBytes(StandardCharsets.UTF_8));
+                break;
+            case FILE:
+                if (config.getFileConfig() == null || config.getFileConfig().equals(""))
+                    break;
+
+                final Path configToHash = new File(rootDirectory, config.getFileConfig()).toPath();
+                if (!Files.isDirectory(configToHash))
+                    throw new FileNotFoundException(Messages.ConfigurationPathNotFound(configToHash));
+
+                final List<Path> files;
+                try (Stream<Path> paths = Files.walk(configToHash)) {
+                    files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                }
+                for (Path file : files) {
+                    digest.update((configToHash.relativize(file) + "\0").getBytes(StandardCharsets.UTF_8));
+                    digest.update(Files.readAllBytes(file));
+                }
+                break;
+            default:
+                throw new RuntimeException(Messages.InvalidConfigMode());
+        }
+
+        return Util.toHexString(digest.digest());
+    }
+
+    public static boolean isGoldenWorkDir(File directory) {
+        return new File(directory, GOLDEN_MARKER_FILE_NAME).isFile();
+    }
+
+    public static void markGoldenWorkDir(File directory) throws IOException {
+        Files.createFile(new File(directory, GOLDEN_MARKER_FILE_NAME).toPath());
+    }
+
+    /**
+     * Creates a new work dir by cloning an already initialized golden one.
+     * <p>
+     * Files in the .terraform directory are never modified after init, so they are hardlinked
+     * when the file system supports it, everything else is copied.
+     */
+    public WorkDir cloneWorkDir(File goldenDirectory,
+                                File rootDirectory,
+                                String workDirectoryName,
+                                Map<String, String> variables) throws IOException {
+        return cloneWorkDir(goldenDirectory, new File(getWorkDirsRoot(rootDirectory), workDirectoryName), variables);
+    }
+
+    /**
+     * Opens an already existing work dir, e.g. to destroy what was created in it.
+     */
+    public WorkDir openWorkDir(File workingDirectory, Map<String, String> variables) throws IOException {
+        if (!workingDirectory.isDirectory())
+            throw new FileNotFoundException("Work dir " + workingDirectory + " doesn't exist");
+
+        return new WorkDir(this, variables, workingDirectory,
+                new File(workingDirectory, STATE_FILE_NAME),
+                new File(workingDirectory, VARIABLES_FILE_NAME));
+    }
+
+    /**
+     * Makes a long-lived work dir match the given golden one, keeping its state.
+     * <p>
+     * If the work dir was cloned from a different golden workspace, everything except the
+     * state is removed and cloned again.
+     */
+    public WorkDir syncWorkDir(File goldenDirectory,
+                               File workingDirectory,
+                               Map<String, String> variables) throws IOException {
+        final Path sourceFile = workingDirectory.toPath().resolve(GOLDEN_SOURCE_FILE_NAME);
+        final String source = goldenDirectory.getAbsolutePath();
+        if (Files.isRegularFile(sourceFile) && new String(Files.readAllBytes(sourceFile), StandardCharsets.UTF_8).equals(source))
+            return new WorkDir(this, variables, workingDirectory,
+                    new File(workingDirectory, STATE_FILE_NAME),
+                    new File(workingDirectory, VARIABLES_FILE_NAME));
+
+        final File[] files = workingDirectory.listFiles();
+        if (files != null)
+            for (File file : files)
+                if (!file.getName().startsWith(STATE_FILE_NAME))
+                    deleteRecursively(file.toPath());
+
+        final WorkDir workDir = cloneWorkDir(goldenDirectory, workingDirectory, variables);
+        Files.write(sourceFile, source.getBytes(StandardCharsets.UTF_8));
+        return workDir;
+    }
+
+    private WorkDir cloneWorkDir(File goldenDirectory,
+                                 File workingDirectory,
+                                 Map<String, String> variables) throws IOException {
+        final Path source = goldenDirectory.toPath();
+        final Path target = workingDirectory.toPath();
+        final Path dotTerraform = source.resolve(DOT_TERRAFORM_DIR_NAME);
+
+        Files.createDirectories(target);
+        Files.walkFileTree(source, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                final Path relative = source.relativize(file);
+                if (relative.toString().equals(GOLDEN_MARKER_FILE_NAME) || relative.toString().startsWith(LOG_FILE_NAME))
+                    return FileVisitResult.CONTINUE;
+
+                final Path dest = target.resolve(relative);
+                if (attrs.isSymbolicLink()) {
+                    Files.createSymbolicLink(dest, Files.readSymbolicLink(file));
+                } else if (file.startsWith(dotTerraform)) {
+                    try {
+                        Files.createLink(dest, file);
+                    } catch (IOException | UnsupportedOperationException ex) {
+                        Files.copy(file, dest);
+                    }
+                } else {
+                    Files.copy(file, dest);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return new WorkDir(this, variables, workingDirectory,
+                new File(workingDirectory, STATE_FILE_NAME),
+                new File(workingDirectory, VARIABLES_FILE_NAME));
+    }
+
     @SuppressWarnings("unused")
     public static class WorkDir implements Closeable {
 
         private static final Logger LOGGER = LoggerFactory.getLogger(WorkDir.class);
         private static final Pattern ANSI_ESCAPE_REGEX = Pattern.compile("\u001B\\[[\\d;]*m");
+        private static final int OUTPUT_TAIL_LINES = 100;
+        private static final long OUTPUT_DRAIN_TIMEOUT_SECONDS = 10;
+        private static final long MAX_LOG_FILE_SIZE = 10L * 1024 * 1024;
         private static final ExecutorService STREAM_GOBBLER_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
 
             private final AtomicInteger i = new AtomicInteger();
@@ -134,71 +420,146 @@ public class LocalTerraformInstallation extends TerraformInstallation {
 
         private final LocalTerraformInstallation installation;
         private final Map<String, String> variables;
+        private final Map<String, Map<String, String>> mapVariables;
 
         private final File pwd;
         private final File stateFile;
         private final File variablesFile;
+        private final @Nullable TerraformRemoteExecutor executor;
 
         public WorkDir(LocalTerraformInstallation installation,
                        Map<String, String> variables,
                        File pwd,
                        File stateFile,
                        File variablesFile) {
+            this(installation, variables, Collections.emptyMap(), pwd, stateFile, variablesFile, null);
+        }
+
+        private WorkDir(LocalTerraformInstallation installation,
+                        Map<String, String> variables,
+                        Map<String, Map<String, String>> mapVariables,
+                        File pwd,
+                        File stateFile,
+                        File variablesFile,
+                        @Nullable TerraformRemoteExecutor executor) {
             this.installation = installation;
             this.variables = Collections.unmodifiableMap(new LinkedHashMap<>(variables));
+            this.mapVariables = Collections.unmodifiableMap(new LinkedHashMap<>(mapVariables));
             this.pwd = pwd;
             this.stateFile = stateFile;
             this.variablesFile = variablesFile;
+            this.executor = executor;
         }
 
-        @Override
-        public void close() throws IOException {
-            Files.walkFileTree(pwd.toPath(), new SimpleFileVisitor<>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    Files.deleteIfExists(file);
-                    return FileVisitResult.CONTINUE;
-                }
+        public WorkDir withMapVariable(String name, Map<String, String> value) {
+            final Map<String, Map<String, String>> newMapVariables = new LinkedHashMap<>(mapVariables);
+            newMapVariables.put(name, Collections.unmodifiableMap(new LinkedHashMap<>(value)));
+            return new WorkDir(installation, variables, newMapVariables, pwd, stateFile, variablesFile, executor);
+        }
 
-                @Override
-                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                    Files.deleteIfExists(dir);
-                    return FileVisitResult.CONTINUE;
-                }
+        /**
+         * Returns a work dir which runs its commands with the given executor, or on the controller if null.
+         */
+        public WorkDir withExecutor(@Nullable TerraformRemoteExecutor executor) {
+            return new WorkDir(installation, variables, mapVariables, pwd, stateFile, variablesFile, executor);
+        }
 
-                @Override
-                public FileVisitResult visitFileFailed(Path file, IOException exc) {
-                    return FileVisitResult.CONTINUE;
-                }
-            });
+        @Override
+        public void close() throws IOException {
+            if (executor != null)
+                executor.cleanup(pwd);
+            deleteRecursively(pwd.toPath());
         }
 
         public Closeable writeFileVariable() throws IOException {
-            Files.write(variablesFile.toPath(), variables.entrySet().stream()
-                    .map(e -> e.getKey() + "= \"" + e.getValue().replace("\"", "\\\"") + '"')
+            Files.write(variablesFile.toPath(), Stream.concat(
+                    variables.entrySet().stream()
+                            .map(e -> e.getKey() + "= " + quote(e.getValue())),
+                    mapVariables.entrySet().stream()
+                            .map(e -> e.getKey() + "= {" + e.getValue().entrySet().stream()
+                                    .map(v -> "\n  " + quote(v.getKey()) + " = " + quote(v.getValue()))
+                                    .collect(Collectors.joining()) + "\n}"))
                     .collect(Collectors.joining("\n"))
                     .getBytes(StandardCharsets.UTF_8));
             return () -> Files.deleteIfExists(variablesFile.toPath());
         }
 
+        private static String quote(String value) {
+            return '"' + value.replace("\"", "\\\"") + '"';
+        }
+
         public <T> T runTerraformCmd(Function<ProcessBuilder, ProcessBuilder> decorator,
                                      ProcessWaitFn<T> waitFn) throws IOException {
             return runTerraformCmd(decorator, false, waitFn);
         }
 
+        public <T> T runTerraformCmd(Function<ProcessBuilder, ProcessBuilder> decorator,
+                                     boolean removeAnsiColors,
+                                     ProcessWaitFn<T> waitFn) throws IOException {
+            return runTerraformCmd(decorator, removeAnsiColors, line -> {}, waitFn);
+        }
+
         @SuppressWarnings("UnusedReturnValue")
         public <T> T runTerraformCmd(Function<ProcessBuilder, ProcessBuilder> decorator,
                                      boolean removeAnsiColors,
+                                     Consumer<String> lineListener,
                                      ProcessWaitFn<T> waitFn) throws IOException {
-            final ProcessBuilder pb = decorator.apply(new ProcessBuilder()
+            final ProcessBuilder basePb = new ProcessBuilder()
                     .command(installation.getLocalExecutable().getAbsolutePath())
                     .directory(pwd)
-                    .redirectErrorStream(true));
-            LOGGER.info("Launching Terraform command: {}", pb.command());
-            final Process process = pb.start();
+                    .redirectErrorStream(true);
+            if (executor == null)
+                TerraformProviderCache.get().configureEnvironment(basePb.environment());
+
+            final ProcessBuilder pb = decorator.apply(basePb);
+            rotateLogFile();
+            if (executor == null) {
+                LOGGER.info("Launching Terraform command: {}", pb.command());
+                return runTerraformCmd(pb, pb.start(), removeAnsiColors, lineListener, waitFn);
+            }
 
-            try(BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), Charset.defaultCharset()))) {
-                final List<String> output = Collections.synchronizedList(new ArrayList<>());
+            final TerraformRemoteExecutor.Execution execution;
+            try {
+                execution = executor.prepare(installation, pwd, REMOTE_EXCLUDES,
+                        pb.command().size() > 1 ? pb.command().get(1) : "");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while preparing remote Terraform work dir");
+            }
+
+            Throwable failure = null;
+            try {
+                return runTerraformCmd(pb, execution.start(pb.command()), removeAnsiColors, lineListener, waitFn);
+            } catch (Throwable t) {
+                failure = t;
+                throw t;
+            } finally {
+                // Always copy back the state, even if partially applied
+                try {
+                    execution.finish();
+                } catch (IOException | InterruptedException e) {
+                    if (e instanceof InterruptedException)
+                        Thread.currentThread().interrupt();
+                    if (failure != null)
+                        failure.addSuppressed(e);
+                    else
+                        throw new IOException("Failed to copy back remote Terraform work dir " + pwd, e);
+                }
+            }
+        }
+
+        private <T> T runTerraformCmd(ProcessBuilder pb,
+                                      Process process,
+                                      boolean removeAnsiColors,
+                                      Consumer<String> lineListener,
+                                      ProcessWaitFn<T> waitFn) throws IOException {
+            try(BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), Charset.defaultCharset()));
+                Writer logWriter = Files.newBufferedWriter(getLogFile().toPath(), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                logWriter.write("> " + String.join(" ", pb.command()) + "\n");
+                logWriter.flush();
+
+                final Deque<String> output = new ArrayDeque<>();
                 final CompletableFuture<?> streamGobbler = CompletableFuture.runAsync(() -> {
                     try {
                         String line;
@@ -206,8 +567,16 @@ public class LocalTerraformInstallation extends TerraformInstallation {
                             if(removeAnsiColors)
                                 line = ANSI_ESCAPE_REGEX.matcher(line).replaceAll("");
 
-                            LOGGER.info("[TERRAFORM] {}", line);
-                            output.add(line);
+                            LOGGER.debug("[TERRAFORM] {}", line);
+                            logWriter.write(line);
+                            logWriter.write('\n');
+                            logWriter.flush();
+                            lineListener.accept(line);
+                            synchronized (output) {
+                                if (output.size() >= OUTPUT_TAIL_LINES)
+                                    output.removeFirst();
+                                output.addLast(line);
+                            }
                         }
                     } catch (IOException e) {
                         // Ignored
@@ -227,13 +596,29 @@ public class LocalTerraformInstallation extends TerraformInstallation {
                                 .map(line -> "\t\t" + line)
                                 .collect(Collectors.joining("\n", "\"\"\n", "\n\"\""));
                     }
-                    throw new IOException("Terraform command failed " + msg);
+                    throw new IOException("Terraform command failed, last " + OUTPUT_TAIL_LINES + " lines " +
+                            "(full output in " + getLogFile() + ") " + msg, t);
                 } finally {
-                    streamGobbler.cancel(true);
+                    // Let the gobbler drain what's left before closing the log file
+                    try {
+                        streamGobbler.get(OUTPUT_DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    } catch (Exception ex) {
+                        streamGobbler.cancel(true);
+                    }
                 }
             }
         }
 
+        private void rotateLogFile() throws IOException {
+            final Path logFile = getLogFile().toPath();
+            if (Files.isRegularFile(logFile) && Files.size(logFile) > MAX_LOG_FILE_SIZE)
+                Files.move(logFile, logFile.resolveSibling(LOG_FILE_NAME + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        public File getLogFile() {
+            return LocalTerraformInstallation.getLogFile(pwd);
+        }
+
         public LocalTerraformInstallation getInstallation() {
             return installation;
         }
@@ -242,6 +627,10 @@ public class LocalTerraformInstallation extends TerraformInstallation {
             return variables;
         }
 
+        public Map<String, Map<String, String>> getMapVariables() {
+            return mapVariables;
+        }
+
         public File getPwd() {
             return pwd;
         }
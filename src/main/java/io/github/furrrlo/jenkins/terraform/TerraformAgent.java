@@ -1,38 +1,83 @@
 package io.github.furrrlo.jenkins.terraform;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.TaskListener;
 import hudson.slaves.AbstractCloudComputer;
 import hudson.slaves.AbstractCloudSlave;
-import hudson.slaves.CloudRetentionStrategy;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
 import org.jenkinsci.plugins.cloudstats.TrackedItem;
-import org.jenkinsci.plugins.durabletask.executors.OnceRetentionStrategy;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
+import java.io.File;
 import java.io.IOException;
 
 public class TerraformAgent extends AbstractCloudSlave implements TrackedItem {
 
     private final ProvisioningActivity.Id provisioningId;
-    private final TerraformCloud cloud;
-    private final TerraformAgentTemplate template;
-    private final LocalTerraformInstallation.WorkDir workDir;
+    // Only references are persisted, the cloud and template configs are resolved when needed
+    private /* almost final */ String cloudName;
+    private /* almost final */ String templateName;
+    /** Null for batched agents, which don't have their own work dir */
+    private /* almost final */ String workDirPath;
+    /** Number of times the infrastructure of this agent was already recycled */
+    private final int reuseCount;
+    /** When the infrastructure of this agent was created, which is before the agent itself if it was recycled */
+    private /* almost final */ long createdAtMillis;
+
+    @Deprecated private TerraformCloud cloud;
+    @Deprecated private TerraformAgentTemplate template;
+    @Deprecated private LocalTerraformInstallation.WorkDir workDir;
+
+    protected TerraformAgent(ProvisioningActivity.Id provisioningId,
+                             @NonNull String name,
+                             TerraformCloud cloud,
+                             TerraformAgentTemplate template,
+                             @Nullable File workDirectory) throws Descriptor.FormException, IOException {
+        this(provisioningId, name, cloud, template, workDirectory, 0, System.currentTimeMillis());
+    }
 
     protected TerraformAgent(ProvisioningActivity.Id provisioningId,
                              @NonNull String name,
                              TerraformCloud cloud,
                              TerraformAgentTemplate template,
-                             LocalTerraformInstallation.WorkDir workDir) throws Descriptor.FormException, IOException {
+                             @Nullable File workDirectory,
+                             int reuseCount,
+                             long createdAtMillis) throws Descriptor.FormException, IOException {
         super(name, template.getWorkspacePath(), new TerraformLauncher(false));
         this.provisioningId = provisioningId;
-        this.cloud = cloud;
-        this.template = template;
-        this.workDir = workDir;
+        this.cloudName = cloud.name;
+        this.templateName = template.getName();
+        this.workDirPath = workDirectory != null ? workDirectory.getAbsolutePath() : null;
+        this.reuseCount = reuseCount;
+        this.createdAtMillis = createdAtMillis;
         setRetentionStrategy(template.getNumExecutors() == 1 && template.getIdleTerminationInMinutes() == 0 ?
-                new OnceRetentionStrategy(5) :
-                new CloudRetentionStrategy(template.getIdleTerminationInMinutes()));
+                new TerraformOnceRetentionStrategy(5) :
+                new TerraformRetentionStrategy(template.getIdleTerminationInMinutes()));
+    }
+
+    @Override
+    protected Object readResolve() {
+        // Migrate agents which were persisted with a full copy of their cloud, template and work dir
+        if (cloud != null) {
+            cloudName = cloud.name;
+            cloud = null;
+        }
+        if (template != null) {
+            templateName = template.getName();
+            template = null;
+        }
+        if (workDir != null) {
+            workDirPath = workDir.getPwd().getAbsolutePath();
+            workDir = null;
+        }
+        if (createdAtMillis == 0)
+            createdAtMillis = System.currentTimeMillis();
+        return super.readResolve();
     }
 
     @Override
@@ -41,10 +86,34 @@ public class TerraformAgent extends AbstractCloudSlave implements TrackedItem {
     }
 
     @Override
-    protected void _terminate(TaskListener listener) throws IOException {
-        try(LocalTerraformInstallation.WorkDir workDir = this.workDir) {
-            TerraformAgentTemplate.executeDestroy(cloud, workDir, name);
+    protected void _terminate(TaskListener listener) {
+        if (workDirPath == null) {
+            final TerraformMetrics metrics = TerraformMetrics.get();
+            metrics.destroyStarted(cloudName, templateName);
+            // Failures are retried by the next batch apply, as the agent is not part of the desired ones anymore
+            TerraformBatch.get(cloudName, templateName).remove(name)
+                    .whenComplete((v, t) -> metrics.destroyEnded(cloudName, templateName));
+            return;
+        }
+
+        final Computer computer = toComputer();
+        final TerraformCloud cloud = getCloud();
+        final TerraformAgentTemplate template = getTemplate();
+        if (computer instanceof TerraformComputer && ((TerraformComputer) computer).isTaskCompleted() &&
+                cloud != null && template != null && template.canRecycle(reuseCount, createdAtMillis)) {
+            Computer.threadPoolForRemoting.submit(() -> template.recycle(cloud, this));
+            return;
         }
+
+        // Agents which never connected are most likely broken, so they are not worth keeping
+        if (cloud != null && template != null && template.canSuspend() &&
+                getLauncher() instanceof TerraformLauncher && ((TerraformLauncher) getLauncher()).isLaunched()) {
+            Computer.threadPoolForRemoting.submit(() -> TerraformSuspendedPool.get().suspend(cloud, template, this));
+            return;
+        }
+
+        // Don't hold the thread removing the node, the queue takes care of destroying and retrying
+        TerraformDestroyQueue.get().enqueue(cloudName, templateName, name, new File(workDirPath), provisioningId);
     }
 
     @Override
@@ -52,11 +121,37 @@ public class TerraformAgent extends AbstractCloudSlave implements TrackedItem {
         return provisioningId;
     }
 
-    public TerraformCloud getCloud() {
-        return cloud;
+    public @Nullable File getLogFile() {
+        return workDirPath != null ? LocalTerraformInstallation.getLogFile(new File(workDirPath)) : null;
+    }
+
+    public int getReuseCount() {
+        return reuseCount;
+    }
+
+    public long getCreatedAtMillis() {
+        return createdAtMillis;
+    }
+
+    public String getCloudName() {
+        return cloudName;
+    }
+
+    public String getTemplateName() {
+        return templateName;
+    }
+
+    public @Nullable String getWorkDirPath() {
+        return workDirPath;
+    }
+
+    public @CheckForNull TerraformCloud getCloud() {
+        final Cloud cloud = Jenkins.get().getCloud(cloudName);
+        return cloud instanceof TerraformCloud ? (TerraformCloud) cloud : null;
     }
 
-    public TerraformAgentTemplate getTemplate() {
-        return template;
+    public @CheckForNull TerraformAgentTemplate getTemplate() {
+        final TerraformCloud cloud = getCloud();
+        return cloud != null ? cloud.getTemplate(templateName) : null;
     }
 }
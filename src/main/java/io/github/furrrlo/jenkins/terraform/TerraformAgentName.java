@@ -1,5 +1,6 @@
 package io.github.furrrlo.jenkins.terraform;
 
+import javax.annotation.CheckForNull;
 import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -32,6 +33,16 @@ public class TerraformAgentName {
         return PREFIX + "-" + cloudName + "-" + templateName + "-" + UUID.randomUUID();
     }
 
+    public static @CheckForNull String getCloudName(String dropletName) {
+        Matcher m = DROPLET_PATTERN.matcher(dropletName);
+        return m.matches() ? m.group(1) : null;
+    }
+
+    public static @CheckForNull String getTemplateName(String dropletName) {
+        Matcher m = DROPLET_PATTERN.matcher(dropletName);
+        return m.matches() ? m.group(2) : null;
+    }
+
     public static boolean isNodeInstanceOfCloud(String dropletName, String cloudName) {
         Matcher m = DROPLET_PATTERN.matcher(dropletName);
         return m.matches() && m.group(1).equals(cloudName);
@@ -6,6 +6,7 @@ import com.google.common.base.Strings;
 import hudson.Extension;
 import hudson.Util;
 import hudson.model.AbstractDescribableImpl;
+import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.Label;
 import hudson.model.labels.LabelAtom;
@@ -24,10 +25,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 import java.util.function.IntSupplier;
 import java.util.stream.Collectors;
 
@@ -35,6 +44,11 @@ import java.util.stream.Collectors;
 public class TerraformAgentTemplate extends AbstractDescribableImpl<TerraformAgentTemplate> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TerraformAgentTemplate.class);
+    private static final Map<String, Lock> GOLDEN_WORK_DIR_LOCKS = new ConcurrentHashMap<>();
+    private static final Map<String, TerraformApplySemaphore> APPLY_SEMAPHORES = new ConcurrentHashMap<>();
+
+    public static final String SUSPENDED_VARIABLE = "jenkins_agent_suspended";
+    private static final long DEMAND_CHECK_INTERVAL_SECONDS = 15;
 
     private final String name;
     private final String labelString;
@@ -48,6 +62,17 @@ public class TerraformAgentTemplate extends AbstractDescribableImpl<TerraformAge
     private final int idleTerminationInMinutes;
     private final int numExecutors;
     private final int instanceCap;
+    private final int maxConcurrentApplies;
+    private final boolean batchMode;
+    private final boolean jsonOutput;
+    private final int minIdle;
+    private final int maxIdle;
+    private final int maxReuses;
+    private final int maxReuseAgeMinutes;
+    private final int suspendedTerminationInMinutes;
+    private final int weight;
+    private final boolean predictiveScaling;
+    private final String capacitySchedule;
 
     private transient Set<LabelAtom> labelSet;
 
@@ -62,7 +87,18 @@ public class TerraformAgentTemplate extends AbstractDescribableImpl<TerraformAge
                                   String workspacePath,
                                   String idleTerminationInMinutes,
                                   String numExecutors,
-                                  String instanceCap) {
+                                  String instanceCap,
+                                  String maxConcurrentApplies,
+                                  boolean batchMode,
+                                  boolean jsonOutput,
+                                  String minIdle,
+                                  String maxIdle,
+                                  String maxReuses,
+                                  String maxReuseAgeMinutes,
+                                  String suspendedTerminationInMinutes,
+                                  String weight,
+                                  boolean predictiveScaling,
+                                  String capacitySchedule) {
 
         this.name = name;
         this.labelString = labelString;
@@ -82,6 +118,17 @@ public class TerraformAgentTemplate extends AbstractDescribableImpl<TerraformAge
             return 1;
         });
         this.instanceCap = Integer.parseInt(instanceCap);
+        this.maxConcurrentApplies = tryParseInteger(maxConcurrentApplies, () -> 0);
+        this.batchMode = batchMode;
+        this.jsonOutput = jsonOutput;
+        this.minIdle = tryParseInteger(minIdle, () -> 0);
+        this.maxIdle = tryParseInteger(maxIdle, () -> 0);
+        this.maxReuses = tryParseInteger(maxReuses, () -> 0);
+        this.maxReuseAgeMinutes = tryParseInteger(maxReuseAgeMinutes, () -> 0);
+        this.suspendedTerminationInMinutes = tryParseInteger(suspendedTerminationInMinutes, () -> 0);
+        this.weight = tryParseInteger(weight, () -> 1);
+        this.predictiveScaling = predictiveScaling;
+        this.capacitySchedule = Util.fixEmptyAndTrim(capacitySchedule);
 
         readResolve();
     }
@@ -92,6 +139,10 @@ public class TerraformAgentTemplate extends AbstractDescribableImpl<TerraformAge
         return this;
     }
 
+    public Closeable acquireApplySlot(TerraformCloud cloud) throws InterruptedException {
+        return TerraformApplySemaphore.acquire(APPLY_SEMAPHORES, cloud.name + '/' + name, maxConcurrentApplies);
+    }
+
     public boolean matches(Label label) {
         return (label == null && labelSet.isEmpty()) ||
                 (label == null && labellessJobsAllowed) ||
@@ -102,28 +153,230 @@ public class TerraformAgentTemplate extends AbstractDescribableImpl<TerraformAge
         if (instanceCap == 0)
             return false;
 
-        long count = Jenkins.get().getNodes().stream()
-                .filter(n -> TerraformAgentName.isNodeInstanceOfTemplate(n.getDisplayName(), cloudName, name))
-                .count();
-        return count >= instanceCap;
+        return TerraformInstanceRegistry.get().getCount(cloudName, name) >= instanceCap;
     }
 
-    public TerraformAgent provision(TerraformCloud cloud, ProvisioningActivity.Id provisioningId, String agentName) throws Exception {
+    public boolean tryReserveInstance(String cloudName, String agentName) {
+        return TerraformInstanceRegistry.get().tryReserve(cloudName, name, agentName, instanceCap);
+    }
+
+    public TerraformAgent provision(TerraformCloud cloud,
+                                    ProvisioningActivity.Id provisioningId,
+                                    String agentName,
+                                    @Nullable TerraformSuspendedPool.SuspendedInstance suspended) throws Exception {
 
         LOGGER.info("Provisioning agent with Terraform template {}...", name);
 
-        final LocalTerraformInstallation installation = new LocalTerraformInstallation(
-                Arrays.stream(((DescriptorImpl) getDescriptor()).getInstallations())
-                        .filter(i -> terraformInstallation != null && i.getName().equals(terraformInstallation))
-                        .findFirst()
-                        .orElseThrow(() -> new Exception("Couldn't find Terraform installation " + terraformInstallation)));
+        if (batchMode)
+            return provisionBatched(cloud, provisioningId, agentName);
+
+        if (suspended != null)
+            return resume(cloud, provisioningId, suspended);
+
+        // Demand might have gone away while waiting for an apply slot
+        if (!cloud.isStillNeeded(this, agentName))
+            throw new TerraformCloud.ProvisioningCancelledException("Agent " + agentName + " is not needed anymore");
+
+        final LocalTerraformInstallation installation = resolveInstallation();
+
+        final Map<String, String> vars = buildVariables();
+        vars.put("jenkins_agent_name", agentName);
+        vars.put("jenkins_agent_secret", JnlpAgentReceiver.DATABASE.getSecretOf(agentName));
+
+        LocalTerraformInstallation.WorkDir workDir = setupWorkDir(cloud, installation, agentName, vars);
+        try {
+            executeApply(cloud, workDir, agentName, provisioningId, () -> cloud.isStillNeeded(this, agentName));
+
+            LOGGER.info("Creating new agent...");
+            return new TerraformAgent(provisioningId, agentName, cloud, this, workDir.getPwd());
+        } catch (Throwable t) {
+            // Failed or cancelled applies might have left something behind
+            try {
+                executeDestroy(cloud, workDir, agentName, provisioningId);
+            } catch (Throwable ex) {
+                t.addSuppressed(ex);
+                // Keep the state, so that the destroy can be retried
+                TerraformDestroyQueue.get().enqueue(cloud.name, name, agentName, workDir.getPwd(), provisioningId);
+                throw t;
+            }
+
+            workDir.close();
+            throw t;
+        }
+    }
+
+    private TerraformAgent provisionBatched(TerraformCloud cloud,
+                                            ProvisioningActivity.Id provisioningId,
+                                            String agentName) throws Exception {
+        final TerraformBatch batch = TerraformBatch.get(cloud.name, name);
+        try {
+            batch.add(agentName, JnlpAgentReceiver.DATABASE.getSecretOf(agentName)).get();
+        } catch (Throwable t) {
+            // Schedule the removal of whatever might have been partially created
+            batch.remove(agentName);
+            throw new Exception("Terraform batch apply failed", t);
+        }
+
+        LOGGER.info("Creating new batched agent...");
+        return new TerraformAgent(provisioningId, agentName, cloud, this, null);
+    }
+
+    /**
+     * Applies the single state shared by all the agents of this template in batch mode,
+     * passing the desired agents as a map of names to secrets.
+     */
+    public void applyBatch(TerraformCloud cloud, Map<String, String> agents) throws Exception {
+        final LocalTerraformInstallation installation = resolveInstallation();
+        final File rootDir = Jenkins.get().getRootDir();
+        final File batchDir = new File(LocalTerraformInstallation.getBatchWorkDirsRoot(rootDir), cloud.name + '-' + name);
+
+        final LocalTerraformInstallation.WorkDir workDir;
+        final Lock lock = getGoldenWorkDirLock(cloud);
+        lock.lock();
+        try {
+            final File goldenDir = getOrBuildGoldenWorkDir(cloud, installation, rootDir);
+            workDir = cloud.onExecutor(installation.syncWorkDir(goldenDir, batchDir, buildVariables()));
+        } finally {
+            lock.unlock();
+        }
+
+        executeApply(cloud, workDir.withMapVariable(TerraformBatch.AGENTS_VARIABLE, agents), null, null);
+    }
+
+    /**
+     * Resumes a suspended instance, keeping its agent name so that nothing but the suspended
+     * variable changes, and destroys it if anything goes wrong.
+     * If the agent is not needed anymore, the instance is put back in the suspended pool instead.
+     */
+    private TerraformAgent resume(TerraformCloud cloud,
+                                  ProvisioningActivity.Id provisioningId,
+                                  TerraformSuspendedPool.SuspendedInstance suspended) throws Exception {
+        final String agentName = suspended.getAgentName();
+        if (!cloud.isStillNeeded(this, agentName)) {
+            TerraformSuspendedPool.get().restore(suspended);
+            throw new TerraformCloud.ProvisioningCancelledException("Agent " + agentName + " is not needed anymore");
+        }
+
+        LOGGER.info("Resuming suspended Terraform agent {}...", agentName);
+        try {
+            final Map<String, String> vars = buildVariables();
+            vars.put("jenkins_agent_name", agentName);
+            vars.put("jenkins_agent_secret", JnlpAgentReceiver.DATABASE.getSecretOf(agentName));
+
+            executeApply(cloud, cloud.onExecutor(resolveInstallation().openWorkDir(suspended.getWorkDir(), vars)), agentName, provisioningId);
+            return new TerraformAgent(provisioningId, agentName, cloud, this, suspended.getWorkDir(),
+                    suspended.getReuseCount(), suspended.getCreatedAtMillis());
+        } catch (Throwable t) {
+            TerraformDestroyQueue.get().enqueue(cloud.name, name, agentName, suspended.getWorkDir(), provisioningId);
+            throw t;
+        }
+    }
+
+    public boolean canSuspend() {
+        return !batchMode && suspendedTerminationInMinutes > 0;
+    }
+
+    /**
+     * Applies the state of a terminated agent with {@code jenkins_agent_suspended} set,
+     * so that the config can stop its instance while keeping its disks.
+     */
+    public void suspend(TerraformCloud cloud, File workDirectory, String agentName) throws Exception {
+        final Map<String, String> vars = buildVariables();
+        vars.put("jenkins_agent_name", agentName);
+        vars.put("jenkins_agent_secret", JnlpAgentReceiver.DATABASE.getSecretOf(agentName));
+        vars.put(SUSPENDED_VARIABLE, "true");
+
+        final LocalTerraformInstallation.WorkDir workDir = cloud.onExecutor(resolveInstallation().openWorkDir(workDirectory, vars));
+        try (Closeable ignoredTemplateSlot = acquireApplySlot(cloud);
+             Closeable ignoredCloudSlot = cloud.acquireApplySlot()) {
+            executeApply(cloud, workDir, agentName, null);
+        }
+    }
+
+    /**
+     * Returns whether the infrastructure of a one-shot agent which completed its task can be
+     * registered again as a fresh agent instead of being destroyed.
+     */
+    public boolean canRecycle(int reuseCount, long createdAtMillis) {
+        if (batchMode || numExecutors != 1 || idleTerminationInMinutes != 0 || reuseCount >= maxReuses)
+            return false;
 
+        return maxReuseAgeMinutes == 0 ||
+                System.currentTimeMillis() - createdAtMillis < TimeUnit.MINUTES.toMillis(maxReuseAgeMinutes);
+    }
+
+    /**
+     * Registers the infrastructure of a terminated one-shot agent as a new agent, with a new name and secret.
+     * <p>
+     * Only the agent identity variables change, so the apply is expected to update the machine in place.
+     * If anything goes wrong, the infrastructure is destroyed as usual.
+     */
+    public void recycle(TerraformCloud cloud, TerraformAgent oldAgent) {
+        final String oldAgentName = oldAgent.getNodeName();
+        final File oldWorkDir = new File(Objects.requireNonNull(oldAgent.getWorkDirPath()));
+        final String agentName = TerraformAgentName.generateAgentName(cloud.name, name);
+        // The old agent is being removed, so this is not a new instance
+        TerraformInstanceRegistry.get().tryReserve(cloud.name, name, agentName, 0);
+
+        LOGGER.info("Recycling Terraform agent {} as {}...", oldAgentName, agentName);
+        final File workDirectory = new File(oldWorkDir.getParentFile(), agentName);
+        try {
+            Files.move(oldWorkDir.toPath(), workDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (Throwable t) {
+            LOGGER.error("Failed to recycle Terraform agent {}, destroying it", oldAgentName, t);
+            TerraformInstanceRegistry.get().release(agentName);
+            TerraformDestroyQueue.get().enqueue(cloud.name, name, oldAgentName, oldWorkDir, oldAgent.getId());
+            return;
+        }
+
+        try {
+            final Map<String, String> vars = buildVariables();
+            vars.put("jenkins_agent_name", agentName);
+            vars.put("jenkins_agent_secret", JnlpAgentReceiver.DATABASE.getSecretOf(agentName));
+
+            final LocalTerraformInstallation.WorkDir workDir = cloud.onExecutor(resolveInstallation().openWorkDir(workDirectory, vars));
+            try (Closeable ignoredTemplateSlot = acquireApplySlot(cloud);
+                 Closeable ignoredCloudSlot = cloud.acquireApplySlot()) {
+                executeApply(cloud, workDir, agentName, null);
+            }
+
+            final TerraformAgent agent = new TerraformAgent(null, agentName, cloud, this, workDirectory,
+                    oldAgent.getReuseCount() + 1, oldAgent.getCreatedAtMillis());
+            cloud.addAgent(agent);
+            final Computer computer = agent.toComputer();
+            if (computer != null)
+                computer.connect(false);
+        } catch (Throwable t) {
+            LOGGER.error("Failed to recycle Terraform agent {} as {}, destroying it", oldAgentName, agentName, t);
+            TerraformInstanceRegistry.get().release(agentName);
+            TerraformDestroyQueue.get().enqueue(cloud.name, name, agentName, workDirectory, null);
+        }
+    }
+
+    /**
+     * Destroys the infrastructure of an agent which is not registered anymore and deletes its work dir.
+     */
+    public void destroy(TerraformCloud cloud,
+                        File workDirectory,
+                        String agentName,
+                        @Nullable ProvisioningActivity.Id provisioningId) throws Exception {
+        final Map<String, String> vars = buildVariables();
+        vars.put("jenkins_agent_name", agentName);
+        vars.put("jenkins_agent_secret", JnlpAgentReceiver.DATABASE.getSecretOf(agentName));
+
+        // The work dir is only removed once destroyed, otherwise the state would be lost for the next attempt
+        final LocalTerraformInstallation.WorkDir workDir = cloud.onExecutor(resolveInstallation().openWorkDir(workDirectory, vars));
+        executeDestroy(cloud, workDir, agentName, provisioningId);
+        workDir.close();
+    }
+
+    private Map<String, String> buildVariables() {
         final Map<String, String> vars = new HashMap<>();
         vars.put("jenkins_url", Jenkins.get().getRootUrl());
         vars.put("jenkins_websocket", String.valueOf(useWebsocket));
-        vars.put("jenkins_agent_name", agentName);
-        vars.put("jenkins_agent_secret", JnlpAgentReceiver.DATABASE.getSecretOf(agentName));
         vars.put("jenkins_agent_workdir", workspacePath);
+        if (canSuspend())
+            vars.put(SUSPENDED_VARIABLE, "false");
 
         final Map<String, String> credentialToVariable = credentials.stream().collect(Collectors.toMap(
                 TerraformCredentials::getCredentialsId,
@@ -151,35 +404,95 @@ public class TerraformAgentTemplate extends AbstractDescribableImpl<TerraformAge
             throw new UnsupportedOperationException("Unsupported credential type " + c.getClass());
         });
 
-        LocalTerraformInstallation.WorkDir workDir = installation.setupWorkDir(Jenkins.get().getRootDir(), agentName, terraformConfig, vars);
+        return vars;
+    }
+
+    /**
+     * Builds the golden workspace of this template, if it's not up-to-date already,
+     * which also ends up populating the provider cache.
+     */
+    public void prewarm(TerraformCloud cloud) throws Exception {
+        LOGGER.info("Pre-warming Terraform template {}...", name);
+        final Lock lock = getGoldenWorkDirLock(cloud);
+        lock.lock();
         try {
-            executeInit(cloud, workDir, agentName);
-            executeGet(cloud, workDir, agentName);
+            getOrBuildGoldenWorkDir(cloud, resolveInstallation(), Jenkins.get().getRootDir());
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            try {
-                executeApply(cloud, workDir, agentName);
-            } catch (Throwable t) {
-                try {
-                    executeDestroy(cloud, workDir, agentName);
-                } catch (Throwable ex) {
-                    t.addSuppressed(ex);
-                }
+    private LocalTerraformInstallation.WorkDir setupWorkDir(TerraformCloud cloud,
+                                                            LocalTerraformInstallation installation,
+                                                            String agentName,
+                                                            Map<String, String> vars) throws Exception {
+        final File rootDir = Jenkins.get().getRootDir();
+        final Lock lock = getGoldenWorkDirLock(cloud);
+        lock.lock();
+        try {
+            final File goldenDir = getOrBuildGoldenWorkDir(cloud, installation, rootDir);
+            final LocalTerraformInstallation.WorkDir workDir = cloud.onExecutor(installation.cloneWorkDir(goldenDir, rootDir, agentName, vars));
+            // Recorded before anything gets created, so it can be cleaned up if the controller crashes
+            TerraformOrphanReconciler.recordOwner(workDir.getPwd(), cloud.name, name);
+            return workDir;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-                throw t;
-            }
+    private Lock getGoldenWorkDirLock(TerraformCloud cloud) {
+        return GOLDEN_WORK_DIR_LOCKS.computeIfAbsent(cloud.name + '-' + name, k -> new ReentrantLock());
+    }
 
-            LOGGER.info("Creating new agent...");
-            return new TerraformAgent(provisioningId, agentName, cloud, this, workDir);
+    /**
+     * Returns the golden workspace of this template, built only if the configuration or
+     * the installation changed. Needs to be called while holding {@link #getGoldenWorkDirLock(TerraformCloud)}.
+     */
+    private File getOrBuildGoldenWorkDir(TerraformCloud cloud,
+                                         LocalTerraformInstallation installation,
+                                         File rootDir) throws Exception {
+        // The name ends up in paths which get recursively deleted, so don't trust configurations saved without validation
+        if (!TerraformAgentName.isValidTemplateName(name))
+            throw new Exception("Invalid Terraform template name " + name);
+
+        final File templateGoldenDirs = TerraformProviderCache.get().getGoldenDir(cloud.name, name);
+        final File goldenDir = new File(templateGoldenDirs, installation.hashConfiguration(rootDir, terraformConfig));
+        if (LocalTerraformInstallation.isGoldenWorkDir(goldenDir))
+            return goldenDir;
+
+        LOGGER.info("Building golden workspace for Terraform template {}...", name);
+        // Remove outdated golden workspaces and leftovers of failed builds
+        if (templateGoldenDirs.exists())
+            LocalTerraformInstallation.deleteRecursively(templateGoldenDirs.toPath());
+
+        final LocalTerraformInstallation.WorkDir goldenWorkDir = cloud.onExecutor(installation.setupWorkDir(
+                rootDir, goldenDir, terraformConfig, Collections.emptyMap()));
+        try {
+            executeInit(cloud, goldenWorkDir, null);
+            executeGet(cloud, goldenWorkDir, null);
+            LocalTerraformInstallation.markGoldenWorkDir(goldenDir);
         } catch (Throwable t) {
-            workDir.close();
+            goldenWorkDir.close();
             throw t;
         }
+
+        return goldenDir;
+    }
+
+    private LocalTerraformInstallation resolveInstallation() throws Exception {
+        if (terraformInstallation == null)
+            throw new Exception("No Terraform installation configured for template " + name);
+        return TerraformInstallationCache.get().resolve(terraformInstallation);
     }
 
     private void executeInit(TerraformCloud cloud,
                              LocalTerraformInstallation.WorkDir workDir,
                              String agentName) throws Exception {
-        try {
+        final TerraformProviderCache providerCache = TerraformProviderCache.get();
+        final long startNanos = System.nanoTime();
+        boolean success = false;
+        try (Closeable ignored = providerCache.lock();
+             Closeable ignoredProcess = TerraformProcessScheduler.get().acquire(TerraformProcessScheduler.Priority.INIT, cloud.name, name)) {
             workDir.runTerraformCmd(
                     pb -> {
                         pb.command().add("init");
@@ -192,15 +505,21 @@ public class TerraformAgentTemplate extends AbstractDescribableImpl<TerraformAge
                             throw new Exception("Terraform init exited with error code " + exitCode);
                         return exitCode;
                     });
+            providerCache.markUsed(workDir.getPwd());
+            success = true;
         } catch (Throwable t) {
             throw new Exception("Terraform init failed", t);
+        } finally {
+            TerraformMetrics.get().observe(TerraformMetrics.Phase.INIT, cloud.name, name, startNanos, success);
         }
     }
 
     private void executeGet(TerraformCloud cloud,
                             LocalTerraformInstallation.WorkDir workDir,
                             String agentName) throws Exception {
-        try {
+        final long startNanos = System.nanoTime();
+        boolean success = false;
+        try (Closeable ignored = TerraformProcessScheduler.get().acquire(TerraformProcessScheduler.Priority.INIT, cloud.name, name)) {
             workDir.runTerraformCmd(pb -> {
                 pb.command().add("get");
                 pb.command().add("-no-color");
@@ -211,29 +530,71 @@ public class TerraformAgentTemplate extends AbstractDescribableImpl<TerraformAge
                     throw new Exception("Terraform get exited with error code " + exitCode);
                 return exitCode;
             });
+            success = true;
         } catch (Throwable t) {
             throw new Exception("Terraform get failed", t);
+        } finally {
+            TerraformMetrics.get().observe(TerraformMetrics.Phase.GET, cloud.name, name, startNanos, success);
         }
     }
 
+    private boolean isJsonOutputSupported(LocalTerraformInstallation.WorkDir workDir) {
+        // Machine-readable apply output was added in 0.15.3
+        return jsonOutput && workDir.getInstallation().isAtLeastVersion(0, 15, 3);
+    }
+
     public void executeApply(TerraformCloud cloud,
                              LocalTerraformInstallation.WorkDir workDir,
-                             String agentName) throws Exception {
-        try(Closeable ignored = workDir.writeFileVariable()) {
+                             String agentName,
+                             @Nullable ProvisioningActivity.Id provisioningId) throws Exception {
+        executeApply(cloud, workDir, agentName, provisioningId, () -> true);
+    }
+
+    /**
+     * Runs an apply which is stopped as soon as the given supplier returns false,
+     * leaving whatever was already created in the state to be destroyed.
+     */
+    private void executeApply(TerraformCloud cloud,
+                              LocalTerraformInstallation.WorkDir workDir,
+                              String agentName,
+                              @Nullable ProvisioningActivity.Id provisioningId,
+                              BooleanSupplier stillNeeded) throws Exception {
+        final TerraformJsonProgress progress = new TerraformJsonProgress();
+        final long startNanos = System.nanoTime();
+        boolean success = false;
+        // The slot is acquired first, so that secrets are not written to disk while waiting for it
+        try(Closeable ignoredProcess = TerraformProcessScheduler.get().acquire(TerraformProcessScheduler.Priority.APPLY, cloud.name, name);
+            Closeable ignored = workDir.writeFileVariable()) {
             workDir.runTerraformCmd(
                     pb -> {
                         pb.command().add("apply");
                         pb.command().add("-no-color");
+                        if (isJsonOutputSupported(workDir))
+                            pb.command().add("-json");
                         pb.command().add("-input=false");
                         pb.command().add("-auto-approve");
-                        pb.command().add("-state=" + workDir.getStateFile().getAbsolutePath());
-                        pb.command().add("-var-file=" + workDir.getVariablesFile().getAbsolutePath());
+                        // Relative to the work dir, so that they also work on remote executors
+                        pb.command().add("-state=" + workDir.getStateFile().getName());
+                        pb.command().add("-var-file=" + workDir.getVariablesFile().getName());
                         return pb;
                     },
+                    false,
+                    progress,
                     (process, output) -> {
-                        if(!process.waitFor(cloud.getTimeoutMinutes(), TimeUnit.MINUTES)) {
-                            process.destroy();
-                            throw new Exception("Terraform apply timeout expired");
+                        final long deadlineNanos = System.nanoTime() + TimeUnit.MINUTES.toNanos(cloud.getTimeoutMinutes());
+                        while(!process.waitFor(Math.max(1, Math.min(TimeUnit.SECONDS.toMillis(DEMAND_CHECK_INTERVAL_SECONDS),
+                                TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()))), TimeUnit.MILLISECONDS)) {
+                            if (System.nanoTime() - deadlineNanos >= 0) {
+                                process.destroy();
+                                throw new Exception("Terraform apply timeout expired");
+                            }
+
+                            if (!stillNeeded.getAsBoolean()) {
+                                // Let Terraform stop gracefully, so that it persists what it already created
+                                process.destroy();
+                                process.waitFor(cloud.getTimeoutMinutes(), TimeUnit.MINUTES);
+                                throw new TerraformCloud.ProvisioningCancelledException("Agent " + agentName + " is not needed anymore");
+                            }
                         }
 
                         final int exitCode = process.exitValue();
@@ -241,34 +602,58 @@ public class TerraformAgentTemplate extends AbstractDescribableImpl<TerraformAge
                             throw new Exception("Terraform apply exited with error code " + exitCode);
                         return exitCode;
                     });
+            success = true;
         } catch (Throwable t) {
             throw new Exception("Terraform apply failed", t);
+        } finally {
+            progress.attachTo(provisioningId, ProvisioningActivity.Phase.PROVISIONING);
+            TerraformMetrics.get().observe(TerraformMetrics.Phase.APPLY, cloud.name, name, startNanos, success);
         }
     }
 
-    public static void executeDestroy(TerraformCloud cloud,
-                                      LocalTerraformInstallation.WorkDir workDir,
-                                      String agentName) throws IOException {
-        try(Closeable ignored = workDir.writeFileVariable()) {
+    public void executeDestroy(TerraformCloud cloud,
+                               LocalTerraformInstallation.WorkDir workDir,
+                               String agentName,
+                               @Nullable ProvisioningActivity.Id provisioningId) throws IOException {
+        final TerraformJsonProgress progress = new TerraformJsonProgress();
+        final long startNanos = System.nanoTime();
+        boolean success = false;
+        // The slot is acquired first, so that secrets are not written to disk while waiting for it
+        try(Closeable ignoredProcess = TerraformProcessScheduler.get().acquire(TerraformProcessScheduler.Priority.DESTROY, cloud.name, name);
+            Closeable ignored = workDir.writeFileVariable()) {
             workDir.runTerraformCmd(
                     pb -> {
                         pb.command().add("apply");
                         pb.command().add("-no-color");
+                        if (isJsonOutputSupported(workDir))
+                            pb.command().add("-json");
                         pb.command().add("-destroy");
                         pb.command().add("-input=false");
                         pb.command().add("-auto-approve");
-                        pb.command().add("-state=" + workDir.getStateFile().getAbsolutePath());
-                        pb.command().add("-var-file=" + workDir.getVariablesFile().getAbsolutePath());
+                        // Relative to the work dir, so that they also work on remote executors
+                        pb.command().add("-state=" + workDir.getStateFile().getName());
+                        pb.command().add("-var-file=" + workDir.getVariablesFile().getName());
                         return pb;
                     },
+                    false,
+                    progress,
                     (process, output) -> {
-                        final int exitCode = process.waitFor();
+                        if(!process.waitFor(cloud.getTimeoutMinutes(), TimeUnit.MINUTES)) {
+                            process.destroy();
+                            throw new Exception("Terraform destroy timeout expired");
+                        }
+
+                        final int exitCode = process.exitValue();
                         if (exitCode != 0)
                             throw new Exception("Terraform destroy exited with error code " + exitCode);
                         return exitCode;
                     });
+            success = true;
         } catch (Throwable ex) {
             throw new IOException("Failed to terminate Terraform node", ex);
+        } finally {
+            progress.attachTo(provisioningId, null);
+            TerraformMetrics.get().observe(TerraformMetrics.Phase.DESTROY, cloud.name, name, startNanos, success);
         }
     }
 
@@ -287,6 +672,8 @@ public class TerraformAgentTemplate extends AbstractDescribableImpl<TerraformAge
         public FormValidation doCheckName(@QueryParameter String name) {
             if (Strings.isNullOrEmpty(name)) {
                 return FormValidation.error("Must be set");
+            } else if (!TerraformAgentName.isValidTemplateName(name)) {
+                return FormValidation.error("Must consist of A-Z, a-z, 0-9 and . symbols");
             } else {
                 return FormValidation.ok();
             }
@@ -367,6 +754,86 @@ public class TerraformAgentTemplate extends AbstractDescribableImpl<TerraformAge
                 return FormValidation.error("Must be a non-negative number");
             return FormValidation.ok();
         }
+
+        public FormValidation doCheckMinIdle(@QueryParameter String minIdle) {
+            return checkNonNegativeOptionalNumber(minIdle);
+        }
+
+        public FormValidation doCheckMaxIdle(@QueryParameter String minIdle, @QueryParameter String maxIdle) {
+            final FormValidation validation = checkNonNegativeOptionalNumber(maxIdle);
+            if (validation.kind != FormValidation.Kind.OK)
+                return validation;
+
+            try {
+                final int min = Strings.isNullOrEmpty(minIdle) ? 0 : Integer.parseInt(minIdle);
+                final int max = Strings.isNullOrEmpty(maxIdle) ? 0 : Integer.parseInt(maxIdle);
+                if (max > 0 && max < min)
+                    return FormValidation.error("Must be greater than or equal to the min idle agents");
+            } catch (NumberFormatException e) {
+                // Reported by the min idle check
+            }
+            return FormValidation.ok();
+        }
+
+        private static FormValidation checkNonNegativeOptionalNumber(String value) {
+            if (value == null || value.isEmpty())
+                return FormValidation.ok();
+
+            int number;
+            try {
+                number = Integer.parseInt(value);
+            } catch (Exception e) {
+                return FormValidation.error("Must be a number");
+            }
+
+            if (number < 0)
+                return FormValidation.error("Must be a non-negative number");
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckMaxConcurrentApplies(@QueryParameter String maxConcurrentApplies) {
+            return checkNonNegativeOptionalNumber(maxConcurrentApplies);
+        }
+
+        public FormValidation doCheckMaxReuses(@QueryParameter String maxReuses) {
+            return checkNonNegativeOptionalNumber(maxReuses);
+        }
+
+        public FormValidation doCheckMaxReuseAgeMinutes(@QueryParameter String maxReuseAgeMinutes) {
+            return checkNonNegativeOptionalNumber(maxReuseAgeMinutes);
+        }
+
+        public FormValidation doCheckSuspendedTerminationInMinutes(@QueryParameter String suspendedTerminationInMinutes) {
+            return checkNonNegativeOptionalNumber(suspendedTerminationInMinutes);
+        }
+
+        public FormValidation doCheckCapacitySchedule(@QueryParameter String capacitySchedule) {
+            if (capacitySchedule == null || capacitySchedule.trim().isEmpty())
+                return FormValidation.ok();
+
+            try {
+                TerraformCapacityPlanner.parseSchedule(capacitySchedule, "");
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckWeight(@QueryParameter String weight) {
+            if (weight == null || weight.isEmpty())
+                return FormValidation.ok();
+
+            int number;
+            try {
+                number = Integer.parseInt(weight);
+            } catch (Exception e) {
+                return FormValidation.error("Must be a number");
+            }
+
+            if (number <= 0)
+                return FormValidation.error("Must be a positive number");
+            return FormValidation.ok();
+        }
     }
 
     public String getName() {
@@ -425,6 +892,58 @@ public class TerraformAgentTemplate extends AbstractDescribableImpl<TerraformAge
         return instanceCap;
     }
 
+    public int getMaxConcurrentApplies() {
+        return maxConcurrentApplies;
+    }
+
+    public boolean isBatchMode() {
+        return batchMode;
+    }
+
+    public boolean isJsonOutput() {
+        return jsonOutput;
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public int getMaxReuses() {
+        return maxReuses;
+    }
+
+    public int getMaxReuseAgeMinutes() {
+        return maxReuseAgeMinutes;
+    }
+
+    public int getSuspendedTerminationInMinutes() {
+        return suspendedTerminationInMinutes;
+    }
+
+    public boolean isPredictiveScaling() {
+        return predictiveScaling;
+    }
+
+    public String getCapacitySchedule() {
+        return capacitySchedule;
+    }
+
+    /**
+     * Whether the warm pool keeps idle agents ready for this template, either always or only at some times.
+     */
+    public boolean isWarmPoolEnabled() {
+        return minIdle > 0 || predictiveScaling || capacitySchedule != null;
+    }
+
+    public int getWeight() {
+        // Templates saved before weights were introduced don't have one
+        return weight > 0 ? weight : 1;
+    }
+
     public Set<LabelAtom> getLabelSet() {
         return labelSet;
     }
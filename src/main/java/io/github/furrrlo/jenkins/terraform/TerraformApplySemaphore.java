@@ -0,0 +1,43 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Fair semaphore limiting concurrent applies, which can be resized while its permits are held.
+ * <p>
+ * Saving the configuration replaces clouds and templates, so their semaphores are kept in static maps
+ * and resized to the new limits instead, to keep counting the applies which are already running.
+ */
+class TerraformApplySemaphore extends Semaphore {
+
+    private int permits;
+
+    private TerraformApplySemaphore(int permits) {
+        super(permits, true);
+        this.permits = permits;
+    }
+
+    /**
+     * Acquires a slot of the semaphore with the given key, resizing it to the given limit if it changed,
+     * or does nothing if there's no limit.
+     */
+    static Closeable acquire(Map<String, TerraformApplySemaphore> semaphores, String key, int limit) throws InterruptedException {
+        if (limit <= 0)
+            return () -> {};
+
+        final TerraformApplySemaphore semaphore = semaphores.computeIfAbsent(key, k -> new TerraformApplySemaphore(limit));
+        semaphore.resize(limit);
+        semaphore.acquire();
+        return semaphore::release;
+    }
+
+    private synchronized void resize(int newPermits) {
+        if (newPermits > permits)
+            release(newPermits - permits);
+        else if (newPermits < permits)
+            reducePermits(permits - newPermits);
+        permits = newPermits;
+    }
+}
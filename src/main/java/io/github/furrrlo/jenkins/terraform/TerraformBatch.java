@@ -0,0 +1,128 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+import jenkins.slaves.JnlpAgentReceiver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single Terraform state shared by all the agents of a template in batch mode.
+ * <p>
+ * Agents are added and removed from the desired set and every change requested while an
+ * apply is already running is coalesced in the next one.
+ */
+public class TerraformBatch {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TerraformBatch.class);
+    private static final Map<String, TerraformBatch> BATCHES = new ConcurrentHashMap<>();
+
+    public static final String AGENTS_VARIABLE = "jenkins_agents";
+
+    private final String cloudName;
+    private final String templateName;
+
+    private final Object lock = new Object();
+    private final Map<String, String> agents = new TreeMap<>();
+    private List<CompletableFuture<Void>> waiting = new ArrayList<>();
+    private boolean applying;
+
+    private TerraformBatch(String cloudName, String templateName) {
+        this.cloudName = cloudName;
+        this.templateName = templateName;
+
+        // Recover the agents which were already provisioned before a restart
+        for (Node node : Jenkins.get().getNodes()) {
+            if (!(node instanceof TerraformAgent))
+                continue;
+
+            final TerraformAgent agent = (TerraformAgent) node;
+            if (agent.getCloudName().equals(cloudName) && agent.getTemplateName().equals(templateName))
+                agents.put(agent.getNodeName(), JnlpAgentReceiver.DATABASE.getSecretOf(agent.getNodeName()));
+        }
+    }
+
+    public static TerraformBatch get(String cloudName, String templateName) {
+        return BATCHES.computeIfAbsent(cloudName + '/' + templateName, k -> new TerraformBatch(cloudName, templateName));
+    }
+
+    public CompletableFuture<Void> add(String agentName, String agentSecret) {
+        synchronized (lock) {
+            agents.put(agentName, agentSecret);
+            return scheduleApply();
+        }
+    }
+
+    public CompletableFuture<Void> remove(String agentName) {
+        synchronized (lock) {
+            agents.remove(agentName);
+            return scheduleApply();
+        }
+    }
+
+    /**
+     * Schedules an apply of the current desired agents, removing anything else left in the state.
+     */
+    public CompletableFuture<Void> reconcile() {
+        synchronized (lock) {
+            return scheduleApply();
+        }
+    }
+
+    private CompletableFuture<Void> scheduleApply() {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        waiting.add(future);
+        if (!applying) {
+            applying = true;
+            Computer.threadPoolForRemoting.submit(this::runApplies);
+        }
+        return future;
+    }
+
+    private void runApplies() {
+        while (true) {
+            final List<CompletableFuture<Void>> toComplete;
+            final Map<String, String> desiredAgents;
+            synchronized (lock) {
+                if (waiting.isEmpty()) {
+                    applying = false;
+                    return;
+                }
+
+                toComplete = waiting;
+                waiting = new ArrayList<>();
+                desiredAgents = new LinkedHashMap<>(agents);
+            }
+
+            try {
+                final Cloud cloud = Jenkins.get().getCloud(cloudName);
+                if (!(cloud instanceof TerraformCloud))
+                    throw new IllegalStateException("Couldn't find Terraform cloud " + cloudName);
+
+                final TerraformCloud terraformCloud = (TerraformCloud) cloud;
+                final TerraformAgentTemplate template = terraformCloud.getTemplate(templateName);
+                if (template == null)
+                    throw new IllegalStateException("Couldn't find Terraform template " + templateName);
+
+                LOGGER.info("Applying Terraform batch {} with {} agents ({} requests)",
+                        templateName, desiredAgents.size(), toComplete.size());
+                try (Closeable ignoredTemplateSlot = template.acquireApplySlot(terraformCloud);
+                     Closeable ignoredCloudSlot = terraformCloud.acquireApplySlot()) {
+                    template.applyBatch(terraformCloud, desiredAgents);
+                }
+
+                toComplete.forEach(f -> f.complete(null));
+            } catch (Throwable t) {
+                LOGGER.error("Failed to apply Terraform batch {}", templateName, t);
+                toComplete.forEach(f -> f.completeExceptionally(t));
+            }
+        }
+    }
+}
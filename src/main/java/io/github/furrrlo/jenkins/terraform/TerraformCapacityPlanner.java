@@ -0,0 +1,367 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import com.google.common.base.Strings;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+import hudson.model.queue.WorkUnit;
+import hudson.scheduler.CronTab;
+import hudson.scheduler.Hash;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes how many idle agents the warm pool of each template should keep ready, ahead of the expected demand.
+ * <p>
+ * On top of the configured min idle agents, templates can have a capacity schedule made of cron-style windows
+ * with the number of agents to keep ready during each one, and can opt into predictive scaling, which forecasts
+ * the demand of each label (tasks running on Terraform agents plus the ones waiting in the queue) for every hour
+ * of the week from the demand recorded in the previous weeks, and keeps idle the part of it which is not
+ * already served by busy agents.
+ * Capacity is provisioned a bit before a window or an expected peak starts, and it's scaled back down afterwards
+ * by letting the idle agents exceeding it be terminated as usual.
+ * <p>
+ * Pipelines can also explicitly pre-warm agents ahead of a fan-out, which are kept ready on top of everything
+ * else until either a task is assigned to them or their TTL expires.
+ */
+public class TerraformCapacityPlanner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TerraformCapacityPlanner.class);
+    private static final String HISTORY_FILE_NAME = TerraformCapacityPlanner.class.getName() + ".xml";
+
+    private static final long LEAD_MILLIS = TimeUnit.MINUTES.toMillis(SystemProperties.getLong(
+            TerraformCapacityPlanner.class.getName() + ".leadMinutes", 15L));
+    private static final int HOURS_PER_WEEK = 7 * 24;
+    // Weight of the latest week in the forecast of an hour
+    private static final double SMOOTHING = 0.3;
+
+    private static final TerraformCapacityPlanner INSTANCE = new TerraformCapacityPlanner();
+
+    private final Map<String, double[]> forecasts = new HashMap<>();
+    private final Map<String, Integer> currentPeaks = new HashMap<>();
+    private final List<Prewarm> prewarms = new ArrayList<>();
+    private int currentHour = -1;
+    private boolean loaded;
+
+    private TerraformCapacityPlanner() {
+    }
+
+    public static TerraformCapacityPlanner get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the number of idle agents the given template should currently keep ready.
+     */
+    public int getMinIdle(TerraformCloud cloud, TerraformAgentTemplate template) {
+        final long now = System.currentTimeMillis();
+        return Math.max(template.getMinIdle(), Math.max(
+                getScheduledCapacity(cloud, template, now),
+                getForecastIdle(cloud, template, now))) + getPrewarmed(cloud.name, template.getName());
+    }
+
+    /**
+     * Keeps the given number of additional agents ready until they are used or the TTL expires.
+     */
+    public synchronized void prewarm(String cloudName, String templateName, int agents, long ttlMillis) {
+        prewarms.add(new Prewarm(cloudName, templateName, agents, System.currentTimeMillis() + ttlMillis));
+    }
+
+    public synchronized boolean hasPrewarm(String cloudName, String templateName) {
+        return getPrewarmed(cloudName, templateName) > 0;
+    }
+
+    /**
+     * Marks one of the pre-warmed agents of the given template as used, if there's any.
+     */
+    public synchronized void consumePrewarm(String cloudName, String templateName) {
+        final long now = System.currentTimeMillis();
+        prewarms.stream()
+                .filter(p -> p.matches(cloudName, templateName) && p.agents > 0 && p.expiresAtMillis > now)
+                .min(Comparator.comparingLong(p -> p.expiresAtMillis))
+                .ifPresent(p -> p.agents--);
+        prewarms.removeIf(p -> p.agents <= 0);
+    }
+
+    /**
+     * Removes the expired pre-warms of the given template.
+     *
+     * @return the number of pre-warmed agents which were never used and can be released
+     */
+    public synchronized int takeExpiredPrewarms(String cloudName, String templateName) {
+        final long now = System.currentTimeMillis();
+        int unused = 0;
+        for (Iterator<Prewarm> iterator = prewarms.iterator(); iterator.hasNext(); ) {
+            final Prewarm prewarm = iterator.next();
+            if (prewarm.matches(cloudName, templateName) && prewarm.expiresAtMillis <= now) {
+                unused += prewarm.agents;
+                iterator.remove();
+            }
+        }
+        return unused;
+    }
+
+    private synchronized int getPrewarmed(String cloudName, String templateName) {
+        final long now = System.currentTimeMillis();
+        return prewarms.stream()
+                .filter(p -> p.matches(cloudName, templateName) && p.expiresAtMillis > now)
+                .mapToInt(p -> p.agents)
+                .sum();
+    }
+
+    private static int getScheduledCapacity(TerraformCloud cloud, TerraformAgentTemplate template, long now) {
+        if (Strings.isNullOrEmpty(template.getCapacitySchedule()))
+            return 0;
+
+        final List<ScheduleEntry> schedule;
+        try {
+            schedule = parseSchedule(template.getCapacitySchedule(), cloud.name + '/' + template.getName());
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Invalid capacity schedule for Terraform template {}", template.getName(), e);
+            return 0;
+        }
+
+        final Calendar current = calendarOf(now);
+        final Calendar ahead = calendarOf(now + LEAD_MILLIS);
+        int capacity = 0;
+        for (ScheduleEntry entry : schedule)
+            if (entry.cronTab.check(current) || entry.cronTab.check(ahead))
+                capacity = Math.max(capacity, entry.agents);
+        return capacity;
+    }
+
+    private int getForecastIdle(TerraformCloud cloud, TerraformAgentTemplate template, long now) {
+        if (!template.isPredictiveScaling())
+            return 0;
+
+        final int currentHour = hourOfWeek(now);
+        final int aheadHour = hourOfWeek(now + LEAD_MILLIS);
+        final Map<String, Double> demands = new HashMap<>();
+        synchronized (this) {
+            load();
+            forecasts.forEach((label, forecast) ->
+                    demands.put(label, Math.max(forecast[currentHour], forecast[aheadHour])));
+        }
+
+        double executors = 0;
+        for (Map.Entry<String, Double> demand : demands.entrySet()) {
+            final Label label = demand.getKey().isEmpty() ? null : Jenkins.get().getLabel(demand.getKey());
+            if (!template.matches(label))
+                continue;
+
+            // The demand of a label is split across all the predictive templates which can serve it
+            final long candidates = cloud.getTemplates().stream()
+                    .filter(t -> t.isPredictiveScaling() && t.matches(label))
+                    .count();
+            executors += demand.getValue() / candidates;
+        }
+
+        // The demand includes the running tasks, so only the part not already served needs idle agents
+        final int busy = TerraformWarmPool.getBusyExecutors(cloud.name, template.getName());
+        return (int) Math.ceil(Math.max(0, executors - busy) / template.getNumExecutors());
+    }
+
+    /**
+     * Samples the demand of each label, made of the tasks running on Terraform agents and the buildable items
+     * waiting in the queue, so that it doesn't drop once capacity is provisioned ahead of it.
+     */
+    public void recordDemand() {
+        final Map<String, Integer> demand = new HashMap<>();
+        for (Node node : Jenkins.get().getNodes()) {
+            final Computer computer = node instanceof TerraformAgent ? node.toComputer() : null;
+            if (computer == null)
+                continue;
+
+            for (Executor executor : computer.getExecutors()) {
+                final WorkUnit workUnit = executor.getCurrentWorkUnit();
+                if (workUnit != null)
+                    demand.merge(getLabelKey(workUnit.work.getAssignedLabel()), 1, Integer::sum);
+            }
+        }
+        for (Queue.BuildableItem item : Jenkins.get().getQueue().getBuildableItems())
+            demand.merge(getLabelKey(item.getAssignedLabel()), 1, Integer::sum);
+
+        final int hour = hourOfWeek(System.currentTimeMillis());
+        synchronized (this) {
+            load();
+            if (currentHour != hour) {
+                if (currentHour != -1)
+                    foldPeaks();
+                currentHour = hour;
+            }
+            demand.forEach((label, count) -> currentPeaks.merge(label, count, Math::max));
+        }
+    }
+
+    private static String getLabelKey(@CheckForNull Label label) {
+        return label == null ? "" : label.getExpression();
+    }
+
+    private void foldPeaks() {
+        final Set<String> labels = new HashSet<>(forecasts.keySet());
+        labels.addAll(currentPeaks.keySet());
+        for (String label : labels) {
+            final double[] forecast = forecasts.computeIfAbsent(label, l -> new double[HOURS_PER_WEEK]);
+            final int peak = currentPeaks.getOrDefault(label, 0);
+            forecast[currentHour] = SMOOTHING * peak + (1 - SMOOTHING) * forecast[currentHour];
+        }
+
+        // Forget the labels which haven't been seen in a long time
+        forecasts.values().removeIf(forecast -> Arrays.stream(forecast).allMatch(v -> v < 0.01));
+        currentPeaks.clear();
+        save();
+    }
+
+    static List<ScheduleEntry> parseSchedule(String schedule, String hashSeed) {
+        final List<ScheduleEntry> entries = new ArrayList<>();
+        final Hash hash = Hash.from(hashSeed);
+        int lineNumber = 0;
+        for (String line : schedule.split("\\r?\\n")) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            final int separator = Math.max(line.lastIndexOf(' '), line.lastIndexOf('\t'));
+            if (separator == -1)
+                throw new IllegalArgumentException("Line " + lineNumber + ": expected a cron spec followed by a number of agents");
+
+            final int agents;
+            try {
+                agents = Integer.parseInt(line.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": invalid number of agents", e);
+            }
+            if (agents < 0)
+                throw new IllegalArgumentException("Line " + lineNumber + ": the number of agents must be non-negative");
+
+            try {
+                entries.add(new ScheduleEntry(new CronTab(line.substring(0, separator).trim(), lineNumber, hash), agents));
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return entries;
+    }
+
+    private static Calendar calendarOf(long millis) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+
+    private static int hourOfWeek(long millis) {
+        final Calendar calendar = calendarOf(millis);
+        return (calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY) * 24 + calendar.get(Calendar.HOUR_OF_DAY);
+    }
+
+    private synchronized void load() {
+        if (loaded)
+            return;
+
+        loaded = true;
+        final XmlFile file = getHistoryFile();
+        if (!file.exists())
+            return;
+
+        try {
+            final History history = (History) file.read();
+            if (history.forecasts != null)
+                history.forecasts.forEach((label, forecast) -> {
+                    if (forecast != null && forecast.length == HOURS_PER_WEEK)
+                        forecasts.put(label, forecast);
+                });
+        } catch (IOException e) {
+            LOGGER.error("Failed to load the Terraform demand history", e);
+        }
+    }
+
+    private synchronized void save() {
+        try {
+            getHistoryFile().write(new History(new HashMap<>(forecasts)));
+        } catch (IOException e) {
+            LOGGER.error("Failed to save the Terraform demand history", e);
+        }
+    }
+
+    private static XmlFile getHistoryFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.get().getRootDir(), HISTORY_FILE_NAME));
+    }
+
+    private static final class History {
+
+        private final Map<String, double[]> forecasts;
+
+        History(Map<String, double[]> forecasts) {
+            this.forecasts = forecasts;
+        }
+    }
+
+    private static final class Prewarm {
+
+        private final String cloudName;
+        private final String templateName;
+        private final long expiresAtMillis;
+        private int agents;
+
+        Prewarm(String cloudName, String templateName, int agents, long expiresAtMillis) {
+            this.cloudName = cloudName;
+            this.templateName = templateName;
+            this.agents = agents;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        boolean matches(String cloudName, String templateName) {
+            return this.cloudName.equals(cloudName) && this.templateName.equals(templateName);
+        }
+    }
+
+    static final class ScheduleEntry {
+
+        private final CronTab cronTab;
+        private final int agents;
+
+        ScheduleEntry(CronTab cronTab, int agents) {
+            this.cronTab = cronTab;
+            this.agents = agents;
+        }
+    }
+
+    @Extension
+    @SuppressWarnings("unused")
+    public static final class DemandRecorder extends AsyncPeriodicWork {
+
+        public DemandRecorder() {
+            super("Terraform demand recorder");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            final boolean enabled = Jenkins.get().clouds.stream()
+                    .filter(TerraformCloud.class::isInstance)
+                    .flatMap(c -> ((TerraformCloud) c).getTemplates().stream())
+                    .anyMatch(TerraformAgentTemplate::isPredictiveScaling);
+            if (enabled)
+                TerraformCapacityPlanner.get().recordDemand();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import jenkins.util.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops provisioning from templates which keep failing.
+ * <p>
+ * After a number of consecutive failures the circuit of a template opens and no provision is attempted
+ * until its backoff expires, which grows exponentially each time it opens again. Then a single probe
+ * provision is let through: if it succeeds the circuit closes, otherwise it opens again.
+ * Failures of provisions which were started before the circuit last opened or closed are not counted,
+ * so that a burst of failures of the provisions in flight doesn't open it over and over.
+ */
+public class TerraformCircuitBreaker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TerraformCircuitBreaker.class);
+
+    private static final int FAILURE_THRESHOLD = SystemProperties.getInteger(
+            TerraformCircuitBreaker.class.getName() + ".failureThreshold", 3);
+    private static final long INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(SystemProperties.getLong(
+            TerraformCircuitBreaker.class.getName() + ".initialBackoffSeconds", 30L));
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(SystemProperties.getLong(
+            TerraformCircuitBreaker.class.getName() + ".maxBackoffMinutes", 30L));
+
+    private static final TerraformCircuitBreaker INSTANCE = new TerraformCircuitBreaker();
+
+    private final Map<String, Circuit> circuits = new HashMap<>();
+    private long sequence;
+
+    private TerraformCircuitBreaker() {
+    }
+
+    public static TerraformCircuitBreaker get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a permit if a provision can be attempted right now, in which case its outcome needs to be reported
+     * with either {@link #recordSuccess}, {@link #recordFailure} or {@link #cancel}.
+     */
+    public synchronized @CheckForNull Permit tryAcquire(String cloudName, String templateName) {
+        final String key = key(cloudName, templateName);
+        final Circuit circuit = circuits.get(key);
+        if (circuit == null || circuit.openUntilMillis == 0)
+            return new Permit(key, templateName, false, ++sequence);
+
+        if (circuit.probing || System.currentTimeMillis() < circuit.openUntilMillis)
+            return null;
+
+        LOGGER.info("Probing Terraform template {} after previous failures", templateName);
+        circuit.probing = true;
+        return new Permit(key, templateName, true, ++sequence);
+    }
+
+    /**
+     * Returns whether the circuit of the template is open, so that nothing can be provisioned from it right now.
+     */
+    public synchronized boolean isOpen(String cloudName, String templateName) {
+        final Circuit circuit = circuits.get(key(cloudName, templateName));
+        return circuit != null && circuit.openUntilMillis != 0 &&
+                (circuit.probing || System.currentTimeMillis() < circuit.openUntilMillis);
+    }
+
+    /**
+     * Reports an attempt which was not actually made.
+     */
+    public synchronized void cancel(Permit permit) {
+        final Circuit circuit = circuits.get(permit.key);
+        if (circuit != null && permit.probe)
+            circuit.probing = false;
+    }
+
+    public synchronized void recordSuccess(Permit permit) {
+        final Circuit circuit = circuits.get(permit.key);
+        if (circuit == null)
+            return;
+
+        if (circuit.openUntilMillis != 0)
+            LOGGER.info("Terraform template {} provisioned successfully, closing its circuit", permit.templateName);
+        circuit.failures = 0;
+        circuit.opened = 0;
+        circuit.openUntilMillis = 0;
+        circuit.probing = false;
+        circuit.since = ++sequence;
+    }
+
+    public synchronized void recordFailure(Permit permit) {
+        final Circuit circuit = circuits.computeIfAbsent(permit.key, k -> new Circuit());
+        // A failed probe opens it again straight away
+        if (!permit.probe && (permit.sequence < circuit.since || ++circuit.failures < FAILURE_THRESHOLD))
+            return;
+
+        final long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(circuit.opened, 20));
+        circuit.opened++;
+        circuit.probing = false;
+        circuit.openUntilMillis = System.currentTimeMillis() + backoff;
+        circuit.since = ++sequence;
+        if (permit.probe)
+            LOGGER.warn("Probe of Terraform template {} failed, not provisioning it for {}s",
+                    permit.templateName, TimeUnit.MILLISECONDS.toSeconds(backoff));
+        else
+            LOGGER.warn("Terraform template {} failed to provision {} times in a row, not provisioning it for {}s",
+                    permit.templateName, circuit.failures, TimeUnit.MILLISECONDS.toSeconds(backoff));
+    }
+
+    private static String key(String cloudName, String templateName) {
+        return cloudName + '/' + templateName;
+    }
+
+    /**
+     * A single provision attempt let through by the circuit breaker.
+     */
+    public static final class Permit {
+
+        private final String key;
+        private final String templateName;
+        private final boolean probe;
+        private final long sequence;
+
+        Permit(String key, String templateName, boolean probe, long sequence) {
+            this.key = key;
+            this.templateName = templateName;
+            this.probe = probe;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class Circuit {
+
+        private int failures;
+        private int opened;
+        private long openUntilMillis;
+        private boolean probing;
+        /** Failures of the permits acquired before this are not counted */
+        private long since;
+    }
+}
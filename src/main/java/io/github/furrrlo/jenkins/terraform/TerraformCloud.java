@@ -1,101 +1,517 @@
 package io.github.furrrlo.jenkins.terraform;
 
 import com.google.common.base.Strings;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
+import hudson.Util;
 import hudson.model.Computer;
 import hudson.model.Descriptor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
 import hudson.slaves.Cloud;
 import hudson.slaves.NodeProvisioner;
 import hudson.util.FormValidation;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.cloudstats.CloudStatistics;
 import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
+import org.jenkinsci.plugins.cloudstats.TrackedItem;
 import org.jenkinsci.plugins.cloudstats.TrackedPlannedNode;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @SuppressWarnings("unused")
 public class TerraformCloud extends Cloud {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TerraformCloud.class);
     private static final Lock PROVISION_LOCK = new ReentrantLock();
+    private static final Map<String, TerraformApplySemaphore> APPLY_SEMAPHORES = new ConcurrentHashMap<>();
 
     private final List<? extends TerraformAgentTemplate> templates;
     private final int timeoutMinutes;
     private final int agentTimeoutMinutes;
+    private final int maxConcurrentApplies;
+    private final boolean immediateProvisioning;
+    private final String executorLabel;
+    private final int hedgingPercentile;
+
+    private transient Map<String, HedgedProvisioning> hedgedProvisionings;
 
     @DataBoundConstructor
     public TerraformCloud(String name,
                           String timeoutMinutes,
                           String agentTimeoutMinutes,
+                          String maxConcurrentApplies,
+                          boolean immediateProvisioning,
+                          String executorLabel,
+                          String hedgingPercentile,
                           List<? extends TerraformAgentTemplate> templates) {
         super(name);
 
         this.templates = templates == null ? Collections.emptyList() : templates;
         this.timeoutMinutes = timeoutMinutes == null || timeoutMinutes.isEmpty() ? 10 : Integer.parseInt(timeoutMinutes);
         this.agentTimeoutMinutes = agentTimeoutMinutes == null || agentTimeoutMinutes.isEmpty() ? 10 : Integer.parseInt(agentTimeoutMinutes);
+        this.maxConcurrentApplies = maxConcurrentApplies == null || maxConcurrentApplies.isEmpty() ? 0 : Integer.parseInt(maxConcurrentApplies);
+        this.immediateProvisioning = immediateProvisioning;
+        this.executorLabel = Util.fixEmptyAndTrim(executorLabel);
+        this.hedgingPercentile = hedgingPercentile == null || hedgingPercentile.isEmpty() ? 0 : Integer.parseInt(hedgingPercentile);
+
+        readResolve();
+    }
+
+    @SuppressWarnings("UnusedReturnValue")
+    protected Object readResolve() {
+        hedgedProvisionings = new ConcurrentHashMap<>();
+        return this;
     }
 
     @Override
     public boolean canProvision(CloudState state) {
-        return templates.stream().anyMatch(t -> t.matches(state.getLabel()));
+        return templates.stream().anyMatch(t -> t.matches(state.getLabel()) &&
+                !TerraformCircuitBreaker.get().isOpen(name, t.getName()));
     }
 
     @Override
     public Collection<NodeProvisioner.PlannedNode> provision(CloudState state, int excessWorkload) {
-        PROVISION_LOCK.lock();
+        List<NodeProvisioner.PlannedNode> provisioningNodes = new ArrayList<>();
         try {
-            List<NodeProvisioner.PlannedNode> provisioningNodes = new ArrayList<>();
-            try {
-                while (excessWorkload > 0) {
-                    final TerraformAgentTemplate template = templates.stream()
-                            .filter(t -> t.matches(state.getLabel()) && !t.isInstanceCapReached(name))
-                            .findFirst()
-                            .orElse(null);
-                    if (template == null)
+            final TerraformTemplateSelector.Selection selection = TerraformTemplateSelector.get().select(name,
+                    templates.stream().filter(t -> t.matches(state.getLabel())).collect(Collectors.toList()));
+            while (excessWorkload > 0) {
+                TerraformAgentTemplate template;
+                NodeProvisioner.PlannedNode plannedNode = null;
+                while ((template = selection.next()) != null) {
+                    plannedNode = tryProvision(template, state.getLabel());
+                    if (plannedNode != null)
                         break;
 
-                    final String agentName = TerraformAgentName.generateAgentName(name, template.getName());
+                    selection.exclude(template);
+                }
+
+                if (template == null)
+                    break;
+
+                provisioningNodes.add(plannedNode);
+                excessWorkload -= template.getNumExecutors();
+            }
+
+            LOGGER.info("Provisioning {} nodes", provisioningNodes.size());
+
+            return provisioningNodes;
+        } catch (Exception e) {
+            LOGGER.error("Failed to provision node", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Starts provisioning a new agent with the given template outside of {@link NodeProvisioner}, e.g. for the
+     * warm pool, unless its instance cap was reached or its circuit is open because of previous failures.
+     * As no planned node is handed to {@link NodeProvisioner}, the provisioning is reported to cloud statistics here.
+     *
+     * @return whether the provisioning was started
+     */
+    public boolean tryProvision(TerraformAgentTemplate template) {
+        final Provisioning provisioning = startProvisioning(template);
+        if (provisioning == null)
+            return false;
+
+        final CloudStatistics.ProvisioningListener statistics = CloudStatistics.ProvisioningListener.get();
+        statistics.onStarted(provisioning.id);
+        provisioning.future.whenComplete((node, t) -> {
+            if (t == null) {
+                statistics.onComplete(provisioning.id, node);
+                return;
+            }
+
+            if (!ProvisioningCancelledException.isCause(t))
+                LOGGER.error("Failed to provision agent {} with template {}", provisioning.agentName, template.getName(), t);
+            statistics.onFailure(provisioning.id, t);
+        });
+        return true;
+    }
+
+    /**
+     * Starts provisioning a new agent for the given label with the given template, unless its instance cap
+     * was reached or its circuit is open because of previous failures,
+     * hedging it if enabled: if the agent doesn't come online within the configured percentile of the recent
+     * provisioning latencies of the template, a second agent is provisioned with another template matching
+     * the label, or the same one, and the first of them which comes online is used.
+     */
+    private @CheckForNull NodeProvisioner.PlannedNode tryProvision(TerraformAgentTemplate template, @CheckForNull Label label) {
+        final Provisioning primary = startProvisioning(template);
+        if (primary == null)
+            return null;
+
+        final long hedgeDelayMillis = hedgingPercentile > 0 ?
+                TerraformTemplateSelector.get().getLatencyPercentile(name, template.getName(), hedgingPercentile) :
+                -1;
+        if (hedgeDelayMillis < 0)
+            return new TrackedPlannedNode(primary.id, template.getNumExecutors(), primary.future);
+
+        final HedgedProvisioning hedged = new HedgedProvisioning(primary.id);
+        hedged.watch(primary);
+        Timer.get().schedule(() -> hedged.hedge(() -> {
+            final List<TerraformAgentTemplate> alternatives = templates.stream()
+                    .filter(t -> t != template && t.matches(label))
+                    .collect(Collectors.toList());
+            final TerraformTemplateSelector.Selection selection = TerraformTemplateSelector.get().select(name, alternatives);
+            TerraformAgentTemplate alternative;
+            while ((alternative = selection.next()) != null) {
+                final Provisioning hedge = startProvisioning(alternative);
+                if (hedge != null)
+                    return hedge;
+
+                selection.exclude(alternative);
+            }
+            return startProvisioning(template);
+        }), hedgeDelayMillis, TimeUnit.MILLISECONDS);
+        return new HedgedPlannedNode(primary.agentName, hedged, template.getNumExecutors());
+    }
+
+    private @CheckForNull Provisioning startProvisioning(TerraformAgentTemplate template) {
+        final TerraformCircuitBreaker circuitBreaker = TerraformCircuitBreaker.get();
+        final TerraformCircuitBreaker.Permit permit = circuitBreaker.tryAcquire(name, template.getName());
+        if (permit == null)
+            return null;
+
+        // Suspended instances are resumed before creating new ones
+        final TerraformSuspendedPool.SuspendedInstance suspended = template.canSuspend() ?
+                TerraformSuspendedPool.get().take(name, template.getName()) :
+                null;
+        final String agentName = suspended != null ?
+                suspended.getAgentName() :
+                TerraformAgentName.generateAgentName(name, template.getName());
+        if (!template.tryReserveInstance(name, agentName)) {
+            if (suspended != null)
+                TerraformSuspendedPool.get().restore(suspended);
+            circuitBreaker.cancel(permit);
+            return null;
+        }
+
+        final ProvisioningActivity.Id provisioningId = new ProvisioningActivity.Id(name, template.getName(), agentName);
+        return new Provisioning(provisioningId, agentName,
+                submitProvisioning(template, provisioningId, agentName, suspended, permit));
+    }
+
+    /**
+     * Raises the warm pool of the templates matching the given label by enough agents for the given executors
+     * until they are used or the TTL expires, so that they start being provisioned right away, without waiting
+     * for work to be queued.
+     *
+     * @return the number of executors which are being provisioned
+     */
+    public int prewarm(@CheckForNull Label label, int executors, long ttlMillis) {
+        final TerraformTemplateSelector.Selection selection = TerraformTemplateSelector.get().select(name,
+                templates.stream().filter(t -> t.matches(label)).collect(Collectors.toList()));
+        final Map<TerraformAgentTemplate, Integer> prewarmed = new LinkedHashMap<>();
+        int remaining = executors;
+        TerraformAgentTemplate template;
+        while (remaining > 0 && (template = selection.next()) != null) {
+            final int agents = prewarmed.getOrDefault(template, 0);
+            final int room = template.getInstanceCap() == 0 ?
+                    Integer.MAX_VALUE :
+                    template.getInstanceCap() - TerraformInstanceRegistry.get().getCount(name, template.getName());
+            if (agents >= room || TerraformCircuitBreaker.get().isOpen(name, template.getName())) {
+                selection.exclude(template);
+                continue;
+            }
+
+            prewarmed.put(template, agents + 1);
+            remaining -= template.getNumExecutors();
+        }
+
+        // The warm pool provisions them, so that they are not provisioned twice
+        prewarmed.forEach((t, agents) -> {
+            LOGGER.info("Pre-warming {} agents of template {}", agents, t.getName());
+            TerraformCapacityPlanner.get().prewarm(name, t.getName(), agents, ttlMillis);
+        });
+        if (!prewarmed.isEmpty())
+            TerraformWarmPool.reconcileSoon();
+        return executors - Math.max(0, remaining);
+    }
 
-                    final ProvisioningActivity.Id provisioningId = new ProvisioningActivity.Id(name, template.getName(), agentName);
-                    provisioningNodes.add(new TrackedPlannedNode(provisioningId, template.getNumExecutors(), Computer.threadPoolForRemoting.submit(() -> {
-                        TerraformAgent agent;
-                        PROVISION_LOCK.lock();
-                        try {
-                            agent = template.provision(this, provisioningId, agentName);
-                            Jenkins.get().addNode(agent);
-                        } finally {
-                            PROVISION_LOCK.unlock();
-                        }
+    private CompletableFuture<Node> submitProvisioning(TerraformAgentTemplate template,
+                                                       ProvisioningActivity.Id provisioningId,
+                                                       String agentName,
+                                                       @CheckForNull TerraformSuspendedPool.SuspendedInstance suspended,
+                                                       TerraformCircuitBreaker.Permit permit) {
+        final TerraformMetrics metrics = TerraformMetrics.get();
+        final long plannedNanos = System.nanoTime();
+        metrics.provisionStarted(name, template.getName());
 
-                        agent.toComputer().connect(false).get();
-                        return agent;
-                    })));
+        final CompletableFuture<Node> future = new CompletableFuture<>();
+        future.whenComplete((n, t) -> {
+            metrics.provisionEnded(name, template.getName());
+            // Cancelled provisions say nothing about the health of the template, but might have been its probe
+            if (ProvisioningCancelledException.isCause(t)) {
+                TerraformCircuitBreaker.get().cancel(permit);
+                return;
+            }
 
-                    excessWorkload -= template.getNumExecutors();
+            TerraformTemplateSelector.get().record(name, template.getName(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - plannedNanos), t == null);
+            if (t == null)
+                TerraformCircuitBreaker.get().recordSuccess(permit);
+            else
+                TerraformCircuitBreaker.get().recordFailure(permit);
+        });
+        Computer.threadPoolForRemoting.submit(() -> {
+            final TerraformAgent agent;
+            // Registered before the node is added, as adding it might launch it and complete the connection
+            final CompletableFuture<Void> connection = TerraformLauncher.getConnectionFuture(agentName);
+            try {
+                if (template.isBatchMode()) {
+                    // Batched applies acquire their own slots, to not prevent coalescing
+                    agent = template.provision(this, provisioningId, agentName, suspended);
+                } else {
+                    // Waiting for the template slot first, so that no cloud slot is held while waiting for it
+                    try (Closeable ignoredTemplateSlot = template.acquireApplySlot(this);
+                         Closeable ignoredCloudSlot = acquireApplySlot()) {
+                        agent = template.provision(this, provisioningId, agentName, suspended);
+                    }
                 }
 
-                LOGGER.info("Provisioning {} nodes", provisioningNodes.size());
+                if (!template.isWarmPoolEnabled() && !isStillNeeded(template, agentName)) {
+                    discard(template, agent);
+                    throw new ProvisioningCancelledException("Agent " + agentName + " is not needed anymore");
+                }
 
-                return provisioningNodes;
-            } catch (Exception e) {
-                LOGGER.error("Failed to provision node", e);
-                return Collections.emptyList();
+                addAgent(agent);
+            } catch (Throwable t) {
+                if (ProvisioningCancelledException.isCause(t))
+                    LOGGER.info("Cancelled provisioning of agent {}, as it is not needed anymore", agentName);
+                TerraformInstanceRegistry.get().release(agentName);
+                TerraformLauncher.removeConnectionFuture(agentName, connection);
+                future.completeExceptionally(t);
+                return;
             }
+
+            // Don't hold a thread while the agent boots, just get notified when it connects
+            final long connectNanos = System.nanoTime();
+            connection.whenComplete((v, t) -> {
+                metrics.observe(TerraformMetrics.Phase.CONNECT, name, template.getName(), connectNanos, t == null);
+                if (t != null) {
+                    future.completeExceptionally(t);
+                    return;
+                }
+
+                metrics.observeQueueToOnline(name, template.getName(), plannedNanos);
+                future.complete(agent);
+            });
+
+            final Computer computer = agent.toComputer();
+            if (computer != null && computer.isOnline())
+                connection.complete(null);
+            else if (computer != null)
+                computer.connect(false);
+        });
+        return future;
+    }
+
+    /**
+     * Returns whether an agent of the given template which is currently being provisioned is still needed,
+     * either by the items waiting in the queue or by the warm pool. Items which could be served by the other
+     * agents of the template which are idle, booting or still being provisioned are not taken into account.
+     * Agents which are part of a hedged provisioning are needed until one of them comes online.
+     */
+    boolean isStillNeeded(TerraformAgentTemplate template, String agentName) {
+        final HedgedProvisioning hedged = hedgedProvisionings.get(agentName);
+        if (hedged != null && !hedged.result.isDone())
+            return true;
+
+        // Agents which are still booting are going to be idle soon as well
+        final int idle = TerraformWarmPool.getIdleComputers(name, template.getName()).size() +
+                TerraformWarmPool.getStartingCount(name, template.getName());
+        // Without the agent which is asking
+        final int otherPending = Math.max(0, TerraformInstanceRegistry.get().getPendingCount(name, template.getName()) - 1);
+        if (idle + otherPending < TerraformCapacityPlanner.get().getMinIdle(this, template))
+            return true;
+
+        int queued = 0;
+        for (Queue.BuildableItem item : Jenkins.get().getQueue().getBuildableItems())
+            if (template.matches(item.getAssignedLabel()))
+                queued++;
+        return queued > (idle + otherPending) * template.getNumExecutors();
+    }
+
+    private void discard(TerraformAgentTemplate template, TerraformAgent agent) {
+        if (template.isBatchMode())
+            TerraformBatch.get(name, template.getName()).remove(agent.getNodeName());
+        else if (template.canSuspend())
+            // Like idle agents, e.g. resumed instances go back to being suspended instead of being destroyed
+            TerraformSuspendedPool.get().suspend(this, template, agent);
+        else
+            TerraformDestroyQueue.get().enqueue(name, template.getName(), agent.getNodeName(),
+                    new File(agent.getWorkDirPath()), agent.getId());
+    }
+
+    void addAgent(TerraformAgent agent) throws IOException {
+        PROVISION_LOCK.lock();
+        try {
+            Jenkins.get().addNode(agent);
         } finally {
             PROVISION_LOCK.unlock();
         }
     }
 
+    /**
+     * Makes the given work dir run its commands on the executor agents of this cloud, if any.
+     */
+    LocalTerraformInstallation.WorkDir onExecutor(LocalTerraformInstallation.WorkDir workDir) {
+        return executorLabel != null ? workDir.withExecutor(new TerraformRemoteExecutor(executorLabel)) : workDir;
+    }
+
+    Closeable acquireApplySlot() throws InterruptedException {
+        return TerraformApplySemaphore.acquire(APPLY_SEMAPHORES, name, maxConcurrentApplies);
+    }
+
+    private static final class Provisioning {
+
+        private final ProvisioningActivity.Id id;
+        private final String agentName;
+        private final CompletableFuture<Node> future;
+
+        Provisioning(ProvisioningActivity.Id id, String agentName, CompletableFuture<Node> future) {
+            this.id = id;
+            this.agentName = agentName;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Races the provisionings of a planned node, completing it with the first agent which comes online.
+     * <p>
+     * The planned node reports the activity of the winner, or of the last one to fail, to cloud statistics,
+     * while the activities of the others are started and completed explicitly.
+     */
+    private final class HedgedProvisioning {
+
+        private final CompletableFuture<Node> result = new CompletableFuture<>();
+        private volatile ProvisioningActivity.Id id;
+        private int running;
+
+        HedgedProvisioning(ProvisioningActivity.Id id) {
+            this.id = id;
+        }
+
+        synchronized void hedge(Supplier<Provisioning> starter) {
+            if (result.isDone())
+                return;
+
+            final Provisioning hedge = starter.get();
+            if (hedge == null) {
+                LOGGER.info("Couldn't hedge slow Terraform provisioning, as no template can provision right now");
+                return;
+            }
+
+            LOGGER.info("Hedging slow Terraform provisioning with agent {}", hedge.agentName);
+            CloudStatistics.ProvisioningListener.get().onStarted(hedge.id);
+            watch(hedge);
+        }
+
+        synchronized void watch(Provisioning provisioning) {
+            running++;
+            hedgedProvisionings.put(provisioning.agentName, this);
+            provisioning.future.whenComplete((node, t) -> completed(provisioning, node, t));
+        }
+
+        private synchronized void completed(Provisioning provisioning, Node node, Throwable t) {
+            running--;
+            hedgedProvisionings.remove(provisioning.agentName);
+            if (t != null) {
+                if (running == 0 && !result.isDone()) {
+                    id = provisioning.id;
+                    result.completeExceptionally(t);
+                } else {
+                    CloudStatistics.ProvisioningListener.get().onFailure(provisioning.id, t);
+                }
+                return;
+            }
+
+            if (!result.isDone()) {
+                id = provisioning.id;
+                result.complete(node);
+                return;
+            }
+
+            CloudStatistics.ProvisioningListener.get().onComplete(provisioning.id, node);
+
+            // Lost the race, release it unless something else already started using it
+            final Computer computer = node.toComputer();
+            if (!(computer instanceof TerraformComputer) || TerraformWarmPool.isKeptWarm((TerraformComputer) computer))
+                return;
+
+            computer.setAcceptingTasks(false);
+            if (!computer.isIdle()) {
+                computer.setAcceptingTasks(true);
+                return;
+            }
+
+            LOGGER.info("Terminating agent {} which lost a hedged provisioning", node.getNodeName());
+            Computer.threadPoolForRemoting.submit(() -> {
+                try {
+                    ((TerraformAgent) node).terminate();
+                } catch (IOException | InterruptedException e) {
+                    LOGGER.warn("Unable to remove Jenkins node", e);
+                }
+            });
+        }
+    }
+
+    private static final class HedgedPlannedNode extends NodeProvisioner.PlannedNode implements TrackedItem {
+
+        private final HedgedProvisioning provisioning;
+
+        HedgedPlannedNode(String displayName, HedgedProvisioning provisioning, int numExecutors) {
+            super(displayName, provisioning.result, numExecutors);
+            this.provisioning = provisioning;
+        }
+
+        @Override
+        public @CheckForNull ProvisioningActivity.Id getId() {
+            return provisioning.id;
+        }
+    }
+
+    /**
+     * Thrown when a provision is stopped because the agent is not needed anymore.
+     */
+    static final class ProvisioningCancelledException extends Exception {
+
+        ProvisioningCancelledException(String message) {
+            super(message);
+        }
+
+        static boolean isCause(@CheckForNull Throwable t) {
+            for (; t != null; t = t.getCause())
+                if (t instanceof ProvisioningCancelledException)
+                    return true;
+            return false;
+        }
+    }
+
     @Extension
     public static final class DescriptorImpl extends Descriptor<Cloud> {
 
@@ -132,6 +548,38 @@ public class TerraformCloud extends Cloud {
             return FormValidation.ok();
         }
 
+        public FormValidation doCheckHedgingPercentile(@QueryParameter String hedgingPercentile) {
+            if (hedgingPercentile == null || hedgingPercentile.isEmpty())
+                return FormValidation.ok();
+
+            int number;
+            try {
+                number = Integer.parseInt(hedgingPercentile);
+            } catch (Exception e) {
+                return FormValidation.error("Hedging percentile must be a number");
+            }
+
+            if (number < 0 || number > 100)
+                return FormValidation.error("Hedging percentile must be between 0 and 100");
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckMaxConcurrentApplies(@QueryParameter String maxConcurrentApplies) {
+            if (maxConcurrentApplies == null || maxConcurrentApplies.isEmpty())
+                return FormValidation.ok();
+
+            int number;
+            try {
+                number = Integer.parseInt(maxConcurrentApplies);
+            } catch (Exception e) {
+                return FormValidation.error("Max concurrent applies must be a number");
+            }
+
+            if (number < 0)
+                return FormValidation.error("Max concurrent applies must be a non-negative number");
+            return FormValidation.ok();
+        }
+
         public FormValidation doCheckTimeoutMinutes(@QueryParameter String timeoutMinutes) {
             if (timeoutMinutes == null || timeoutMinutes.isEmpty())
                 return FormValidation.error("Timeout must be set");
@@ -153,6 +601,13 @@ public class TerraformCloud extends Cloud {
         return templates;
     }
 
+    public TerraformAgentTemplate getTemplate(String templateName) {
+        return templates.stream()
+                .filter(t -> t.getName().equals(templateName))
+                .findFirst()
+                .orElse(null);
+    }
+
     public int getTimeoutMinutes() {
         return timeoutMinutes;
     }
@@ -160,4 +615,20 @@ public class TerraformCloud extends Cloud {
     public int getAgentTimeoutMinutes() {
         return agentTimeoutMinutes;
     }
+
+    public int getMaxConcurrentApplies() {
+        return maxConcurrentApplies;
+    }
+
+    public boolean isImmediateProvisioning() {
+        return immediateProvisioning;
+    }
+
+    public String getExecutorLabel() {
+        return executorLabel;
+    }
+
+    public int getHedgingPercentile() {
+        return hedgingPercentile;
+    }
 }
@@ -1,14 +1,19 @@
 package io.github.furrrlo.jenkins.terraform;
 
+import hudson.model.Executor;
+import hudson.model.Queue;
 import hudson.slaves.AbstractCloudComputer;
 import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
 import org.jenkinsci.plugins.cloudstats.TrackedItem;
 
 import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TerraformComputer extends AbstractCloudComputer<TerraformAgent> implements TrackedItem {
 
     private final ProvisioningActivity.Id provisioningId;
+    private volatile boolean taskCompleted;
+    private final AtomicBoolean taskAccepted = new AtomicBoolean();
 
     public TerraformComputer(TerraformAgent slave) {
         super(slave);
@@ -20,4 +25,34 @@ public class TerraformComputer extends AbstractCloudComputer<TerraformAgent> imp
     public ProvisioningActivity.Id getId() {
         return provisioningId;
     }
+
+    @Override
+    public void taskAccepted(Executor executor, Queue.Task task) {
+        super.taskAccepted(executor, task);
+        // Refill the warm pool as soon as one of its agents is taken
+        final TerraformAgent node = getNode();
+        final TerraformAgentTemplate template = node != null ? node.getTemplate() : null;
+        if (template == null)
+            return;
+
+        final TerraformCapacityPlanner planner = TerraformCapacityPlanner.get();
+        final boolean prewarmed = planner.hasPrewarm(node.getCloudName(), template.getName());
+        if (prewarmed && taskAccepted.compareAndSet(false, true))
+            planner.consumePrewarm(node.getCloudName(), template.getName());
+        if (prewarmed || template.isWarmPoolEnabled())
+            TerraformWarmPool.reconcileSoon();
+    }
+
+    @Override
+    public void taskCompleted(Executor executor, Queue.Task task, long durationMS) {
+        taskCompleted = true;
+        super.taskCompleted(executor, task, durationMS);
+    }
+
+    /**
+     * Returns whether a task was run to completion on this computer, without the executor failing.
+     */
+    public boolean isTaskCompleted() {
+        return taskCompleted;
+    }
 }
@@ -0,0 +1,243 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Computer;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent queue of the Terraform destroys which still need to be run.
+ * <p>
+ * Nodes are removed from Jenkins as soon as their destroy is queued, while the queue runs
+ * them in the background with bounded parallelism, retrying failed ones with exponential backoff.
+ * Pending destroys are persisted and resumed after a restart.
+ */
+public class TerraformDestroyQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TerraformDestroyQueue.class);
+    private static final String QUEUE_FILE_NAME = TerraformDestroyQueue.class.getName() + ".xml";
+
+    private static final int PARALLELISM = SystemProperties.getInteger(
+            TerraformDestroyQueue.class.getName() + ".parallelism", 4);
+    private static final int MAX_ATTEMPTS = SystemProperties.getInteger(
+            TerraformDestroyQueue.class.getName() + ".maxAttempts", 10);
+    private static final long INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final TerraformDestroyQueue INSTANCE = new TerraformDestroyQueue();
+
+    private final List<DestroyJob> jobs = new ArrayList<>();
+    private int running;
+    private boolean loaded;
+    private ScheduledFuture<?> nextDispatch;
+    private long nextDispatchMillis = Long.MAX_VALUE;
+
+    private TerraformDestroyQueue() {
+    }
+
+    public static TerraformDestroyQueue get() {
+        return INSTANCE;
+    }
+
+    public void enqueue(String cloudName,
+                        String templateName,
+                        String agentName,
+                        File workDir,
+                        @Nullable ProvisioningActivity.Id provisioningId) {
+        synchronized (this) {
+            load();
+            jobs.add(new DestroyJob(cloudName, templateName, agentName, workDir.getAbsolutePath(), provisioningId));
+            TerraformMetrics.get().destroyStarted(cloudName, templateName);
+            save();
+        }
+        dispatch();
+    }
+
+    public synchronized boolean isQueued(File workDir) {
+        load();
+        final String path = workDir.getAbsolutePath();
+        return jobs.stream().anyMatch(job -> job.workDir.equals(path));
+    }
+
+    public synchronized int getSize() {
+        load();
+        return jobs.size();
+    }
+
+    private void dispatch() {
+        final List<DestroyJob> toRun = new ArrayList<>();
+        long nextDueMillis = Long.MAX_VALUE;
+        synchronized (this) {
+            final long now = System.currentTimeMillis();
+            for (DestroyJob job : jobs) {
+                if (job.running)
+                    continue;
+
+                if (job.nextAttemptMillis > now) {
+                    nextDueMillis = Math.min(nextDueMillis, job.nextAttemptMillis);
+                    continue;
+                }
+
+                if (running >= PARALLELISM)
+                    break;
+
+                job.running = true;
+                running++;
+                toRun.add(job);
+            }
+        }
+
+        toRun.forEach(job -> Computer.threadPoolForRemoting.submit(() -> run(job)));
+        if (nextDueMillis != Long.MAX_VALUE)
+            scheduleDispatch(nextDueMillis);
+    }
+
+    /**
+     * Schedules a dispatch at the given time, unless one which didn't fire yet is already pending for an earlier time.
+     */
+    private synchronized void scheduleDispatch(long atMillis) {
+        if (nextDispatch != null && !nextDispatch.isDone() &&
+                nextDispatchMillis > System.currentTimeMillis() && nextDispatchMillis <= atMillis)
+            return;
+
+        if (nextDispatch != null)
+            nextDispatch.cancel(false);
+        nextDispatchMillis = atMillis;
+        nextDispatch = Timer.get().schedule(this::dispatch, atMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void run(DestroyJob job) {
+        Throwable failure = null;
+        try {
+            final Cloud cloud = Jenkins.get().getCloud(job.cloudName);
+            if (!(cloud instanceof TerraformCloud))
+                throw new IllegalStateException("Couldn't find Terraform cloud " + job.cloudName);
+
+            final TerraformCloud terraformCloud = (TerraformCloud) cloud;
+            final TerraformAgentTemplate template = terraformCloud.getTemplate(job.templateName);
+            if (template == null)
+                throw new IllegalStateException("Couldn't find Terraform template " + job.templateName);
+
+            template.destroy(terraformCloud, new File(job.workDir), job.agentName, job.provisioningId);
+            LOGGER.info("Destroyed Terraform agent {}", job.agentName);
+        } catch (Throwable t) {
+            failure = t;
+        }
+
+        synchronized (this) {
+            boolean done = failure == null;
+            if (failure != null) {
+                job.attempts++;
+                done = job.attempts >= MAX_ATTEMPTS;
+                if (done) {
+                    LOGGER.error("Failed to destroy Terraform agent {} after {} attempts, giving up. " +
+                            "Its infrastructure and state in {} need to be cleaned up manually",
+                            job.agentName, job.attempts, job.workDir, failure);
+                } else {
+                    final long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(job.attempts - 1, 20));
+                    job.nextAttemptMillis = System.currentTimeMillis() + backoff;
+                    LOGGER.warn("Failed to destroy Terraform agent {} (attempt {}/{}), retrying in {}s",
+                            job.agentName, job.attempts, MAX_ATTEMPTS, TimeUnit.MILLISECONDS.toSeconds(backoff), failure);
+                }
+            }
+
+            job.running = false;
+            running--;
+            if (done) {
+                jobs.remove(job);
+                TerraformMetrics.get().destroyEnded(job.cloudName, job.templateName);
+            }
+            save();
+        }
+        dispatch();
+    }
+
+    private synchronized void load() {
+        if (loaded)
+            return;
+
+        loaded = true;
+        final XmlFile file = getQueueFile();
+        if (!file.exists())
+            return;
+
+        try {
+            final Jobs persisted = (Jobs) file.read();
+            if (persisted.jobs != null) {
+                for (DestroyJob job : persisted.jobs) {
+                    jobs.add(job);
+                    TerraformMetrics.get().destroyStarted(job.cloudName, job.templateName);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to load the Terraform destroy queue", e);
+        }
+    }
+
+    private synchronized void save() {
+        try {
+            getQueueFile().write(new Jobs(new ArrayList<>(jobs)));
+        } catch (IOException e) {
+            LOGGER.error("Failed to save the Terraform destroy queue", e);
+        }
+    }
+
+    private static XmlFile getQueueFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.get().getRootDir(), QUEUE_FILE_NAME));
+    }
+
+    @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+    @SuppressWarnings("unused")
+    public static void resume() {
+        get().load();
+        get().dispatch();
+    }
+
+    private static final class Jobs {
+
+        private final List<DestroyJob> jobs;
+
+        Jobs(List<DestroyJob> jobs) {
+            this.jobs = jobs;
+        }
+    }
+
+    private static final class DestroyJob {
+
+        private final String cloudName;
+        private final String templateName;
+        private final String agentName;
+        private final String workDir;
+        private final ProvisioningActivity.Id provisioningId;
+        private int attempts;
+        private long nextAttemptMillis;
+        private transient boolean running;
+
+        DestroyJob(String cloudName,
+                   String templateName,
+                   String agentName,
+                   String workDir,
+                   ProvisioningActivity.Id provisioningId) {
+            this.cloudName = cloudName;
+            this.templateName = templateName;
+            this.agentName = agentName;
+            this.workDir = workDir;
+            this.provisioningId = provisioningId;
+        }
+    }
+}
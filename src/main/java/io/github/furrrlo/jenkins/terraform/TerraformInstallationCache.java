@@ -0,0 +1,170 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.XmlFile;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.terraform.TerraformBuildWrapper;
+import org.jenkinsci.plugins.terraform.TerraformInstallation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the resolved and verified Terraform installations, keyed by installation name.
+ * <p>
+ * Resolving an installation might need to run tool installers, so it's done once and then only
+ * done again when the tool configuration or the executable itself change.
+ */
+public class TerraformInstallationCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TerraformInstallationCache.class);
+    private static final TerraformInstallationCache INSTANCE = new TerraformInstallationCache();
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, RemoteEntry> remoteEntries = new ConcurrentHashMap<>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    private TerraformInstallationCache() {
+    }
+
+    public static TerraformInstallationCache get() {
+        return INSTANCE;
+    }
+
+    public LocalTerraformInstallation resolve(String installationName) throws Exception {
+        final TerraformInstallation configured = findConfigured(installationName);
+
+        Entry entry = entries.get(installationName);
+        if (entry != null && entry.isValidFor(configured))
+            return entry.installation;
+
+        // Only resolve each installation once, other provisions can wait for it instead of doing it again
+        synchronized (locks.computeIfAbsent(installationName, k -> new Object())) {
+            entry = entries.get(installationName);
+            if (entry != null && entry.isValidFor(configured))
+                return entry.installation;
+
+            final LocalTerraformInstallation installation = new LocalTerraformInstallation(configured);
+            LOGGER.info("Resolved Terraform installation {} to {} (version {})",
+                    installationName, installation.getLocalExecutable(), installation.getVersion());
+            entries.put(installationName, new Entry(configured, installation));
+            return installation;
+        }
+    }
+
+    /**
+     * Resolves the given installation on an agent, returning the path of the executable on it.
+     */
+    public String resolveRemote(String installationName, Node node) throws IOException, InterruptedException {
+        final TerraformInstallation configured;
+        try {
+            configured = findConfigured(installationName);
+        } catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        final String key = installationName + '@' + node.getNodeName();
+        RemoteEntry entry = remoteEntries.get(key);
+        if (entry != null && entry.configured == configured)
+            return entry.executable;
+
+        synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+            entry = remoteEntries.get(key);
+            if (entry != null && entry.configured == configured)
+                return entry.executable;
+
+            final Computer computer = node.toComputer();
+            final VirtualChannel channel = computer != null ? computer.getChannel() : null;
+            final String home = configured.forNode(node, TaskListener.NULL).getHome();
+            if (channel == null || home == null)
+                throw new IOException("Couldn't resolve Terraform installation " + installationName + " on " + node.getNodeName());
+
+            final FilePath executable = new FilePath(channel, home)
+                    .child(Boolean.FALSE.equals(computer.isUnix()) ? "terraform.exe" : "terraform");
+            if (!executable.exists())
+                throw new FileNotFoundException("Terraform executable " + executable.getRemote() + " not found on " + node.getNodeName());
+
+            LOGGER.info("Resolved Terraform installation {} on {} to {}", installationName, node.getNodeName(), executable.getRemote());
+            remoteEntries.put(key, new RemoteEntry(configured, executable.getRemote()));
+            return executable.getRemote();
+        }
+    }
+
+    public void invalidate(String installationName) {
+        entries.remove(installationName);
+        remoteEntries.keySet().removeIf(key -> key.startsWith(installationName + '@'));
+    }
+
+    private static TerraformInstallation findConfigured(String installationName) throws Exception {
+        return Arrays.stream(Jenkins.get()
+                        .getDescriptorByType(TerraformBuildWrapper.DescriptorImpl.class)
+                        .getInstallations())
+                .filter(i -> i.getName().equals(installationName))
+                .findFirst()
+                .orElseThrow(() -> new Exception("Couldn't find Terraform installation " + installationName));
+    }
+
+    /**
+     * Drops the cached installations as soon as the tool configuration is saved, instead of keeping
+     * the replaced ones around until they are next resolved.
+     */
+    @Extension
+    public static final class ConfigurationListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (!(o instanceof TerraformBuildWrapper.DescriptorImpl))
+                return;
+
+            final TerraformInstallationCache cache = get();
+            final Set<String> names = new HashSet<>();
+            cache.entries.values().forEach(e -> names.add(e.configured.getName()));
+            cache.remoteEntries.values().forEach(e -> names.add(e.configured.getName()));
+            names.forEach(cache::invalidate);
+        }
+    }
+
+    private static final class RemoteEntry {
+
+        private final TerraformInstallation configured;
+        private final String executable;
+
+        RemoteEntry(TerraformInstallation configured, String executable) {
+            this.configured = configured;
+            this.executable = executable;
+        }
+    }
+
+    private static final class Entry {
+
+        private final TerraformInstallation configured;
+        private final LocalTerraformInstallation installation;
+        private final long executableLastModified;
+
+        Entry(TerraformInstallation configured, LocalTerraformInstallation installation) {
+            this.configured = configured;
+            this.installation = installation;
+            this.executableLastModified = installation.getLocalExecutable().lastModified();
+        }
+
+        boolean isValidFor(TerraformInstallation configured) {
+            // Saving the tool configuration replaces all the installation instances
+            return this.configured == configured &&
+                    installation.getLocalExecutable().lastModified() == executableLastModified;
+        }
+    }
+}
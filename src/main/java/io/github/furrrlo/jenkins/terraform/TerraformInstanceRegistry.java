@@ -0,0 +1,168 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Node;
+import jenkins.model.Jenkins;
+import jenkins.model.NodeListener;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory index of the Terraform instances of each cloud and template, including
+ * the ones which are still being provisioned and are not registered as nodes yet.
+ */
+public class TerraformInstanceRegistry {
+
+    private static final TerraformInstanceRegistry INSTANCE = new TerraformInstanceRegistry();
+
+    private final Map<String, Instance> instances = new HashMap<>();
+    private final Map<String, Counts> counts = new HashMap<>();
+    private boolean loaded;
+
+    private TerraformInstanceRegistry() {
+    }
+
+    public static TerraformInstanceRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Reserves a slot for a new pending instance, unless the instance cap was already reached.
+     *
+     * @return true if the slot was reserved
+     */
+    public synchronized boolean tryReserve(String cloudName, String templateName, String agentName, int instanceCap) {
+        ensureLoaded();
+
+        final Counts templateCounts = counts.computeIfAbsent(key(cloudName, templateName), k -> new Counts());
+        if (instanceCap != 0 && templateCounts.total() >= instanceCap)
+            return false;
+
+        add(new Instance(cloudName, templateName, agentName, true));
+        return true;
+    }
+
+    public synchronized void markLive(String cloudName, String templateName, String agentName) {
+        ensureLoaded();
+
+        final Instance instance = instances.get(agentName);
+        if (instance == null) {
+            add(new Instance(cloudName, templateName, agentName, false));
+            return;
+        }
+
+        if (instance.pending) {
+            instance.pending = false;
+            final Counts templateCounts = counts.get(key(instance.cloudName, instance.templateName));
+            templateCounts.pending--;
+            templateCounts.live++;
+        }
+    }
+
+    public synchronized void release(String agentName) {
+        final Instance instance = instances.remove(agentName);
+        if (instance == null)
+            return;
+
+        final Counts templateCounts = counts.get(key(instance.cloudName, instance.templateName));
+        if (instance.pending)
+            templateCounts.pending--;
+        else
+            templateCounts.live--;
+    }
+
+    public synchronized boolean isTracked(String agentName) {
+        ensureLoaded();
+        return instances.containsKey(agentName);
+    }
+
+    public synchronized int getCount(String cloudName, String templateName) {
+        ensureLoaded();
+
+        final Counts templateCounts = counts.get(key(cloudName, templateName));
+        return templateCounts == null ? 0 : templateCounts.total();
+    }
+
+    public synchronized int getPendingCount(String cloudName, String templateName) {
+        ensureLoaded();
+
+        final Counts templateCounts = counts.get(key(cloudName, templateName));
+        return templateCounts == null ? 0 : templateCounts.pending;
+    }
+
+    private void add(Instance instance) {
+        if (instances.putIfAbsent(instance.agentName, instance) != null)
+            return;
+
+        final Counts templateCounts = counts.computeIfAbsent(key(instance.cloudName, instance.templateName), k -> new Counts());
+        if (instance.pending)
+            templateCounts.pending++;
+        else
+            templateCounts.live++;
+    }
+
+    private void ensureLoaded() {
+        if (loaded)
+            return;
+
+        loaded = true;
+        for (Node node : Jenkins.get().getNodes()) {
+            if (!(node instanceof TerraformAgent))
+                continue;
+
+            final TerraformAgent agent = (TerraformAgent) node;
+            add(new Instance(agent.getCloudName(), agent.getTemplateName(), agent.getNodeName(), false));
+        }
+    }
+
+    private static String key(String cloudName, String templateName) {
+        return cloudName + '/' + templateName;
+    }
+
+    private static final class Instance {
+
+        private final String cloudName;
+        private final String templateName;
+        private final String agentName;
+        private boolean pending;
+
+        Instance(String cloudName, String templateName, String agentName, boolean pending) {
+            this.cloudName = cloudName;
+            this.templateName = templateName;
+            this.agentName = agentName;
+            this.pending = pending;
+        }
+    }
+
+    private static final class Counts {
+
+        private int pending;
+        private int live;
+
+        int total() {
+            return pending + live;
+        }
+    }
+
+    @Extension
+    @SuppressWarnings("unused")
+    public static final class Listener extends NodeListener {
+
+        @Override
+        protected void onCreated(@NonNull Node node) {
+            if (!(node instanceof TerraformAgent))
+                return;
+
+            final TerraformAgent agent = (TerraformAgent) node;
+            get().markLive(agent.getCloudName(), agent.getTemplateName(), agent.getNodeName());
+        }
+
+        @Override
+        protected void onDeleted(@NonNull Node node) {
+            if (node instanceof TerraformAgent)
+                get().release(node.getNodeName());
+        }
+    }
+}
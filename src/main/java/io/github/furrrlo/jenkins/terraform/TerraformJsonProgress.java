@@ -0,0 +1,122 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.cloudstats.CloudStatistics;
+import org.jenkinsci.plugins.cloudstats.PhaseExecutionAttachment;
+import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Parses the machine-readable output of a Terraform apply run with -json,
+ * keeping track of how long each resource took to be applied.
+ */
+public class TerraformJsonProgress implements Consumer<String> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TerraformJsonProgress.class);
+
+    private final Map<String, Long> started = new HashMap<>();
+    private final List<ResourceTiming> timings = new ArrayList<>();
+
+    @Override
+    public synchronized void accept(String line) {
+        if (!line.startsWith("{"))
+            return;
+
+        final JSONObject json;
+        try {
+            json = JSONObject.fromObject(line);
+        } catch (JSONException ex) {
+            LOGGER.debug("Failed to parse Terraform JSON output: {}", line, ex);
+            return;
+        }
+
+        final JSONObject hook = json.optJSONObject("hook");
+        final JSONObject resource = hook != null ? hook.optJSONObject("resource") : null;
+        if (resource == null)
+            return;
+
+        final String address = resource.optString("addr");
+        final String action = hook.optString("action");
+        switch (json.optString("type")) {
+            case "apply_start":
+                started.put(address, System.currentTimeMillis());
+                break;
+            case "apply_complete":
+            case "apply_errored":
+                final Long startMillis = started.remove(address);
+                final long elapsedMillis = startMillis != null ?
+                        System.currentTimeMillis() - startMillis :
+                        hook.optLong("elapsed_seconds") * 1000;
+                timings.add(new ResourceTiming(address, action, elapsedMillis, json.optString("type").equals("apply_errored")));
+                break;
+            default:
+                break;
+        }
+    }
+
+    public synchronized List<ResourceTiming> getTimings() {
+        return new ArrayList<>(timings);
+    }
+
+    /**
+     * Attaches the collected timings to the given phase of a provisioning activity,
+     * or to its current phase if none is specified.
+     */
+    public void attachTo(@Nullable ProvisioningActivity.Id provisioningId, @Nullable ProvisioningActivity.Phase phase) {
+        if (provisioningId == null)
+            return;
+
+        final CloudStatistics stats = CloudStatistics.get();
+        final ProvisioningActivity activity = stats.getActivityFor(provisioningId);
+        if (activity == null)
+            return;
+
+        final ProvisioningActivity.Phase targetPhase = phase != null ? phase : activity.getCurrentPhase();
+        for (ResourceTiming timing : getTimings())
+            stats.attach(activity, targetPhase, new PhaseExecutionAttachment(
+                    timing.isErrored() ? ProvisioningActivity.Status.WARN : ProvisioningActivity.Status.OK,
+                    timing.toString()));
+    }
+
+    public static final class ResourceTiming {
+
+        private final String address;
+        private final String action;
+        private final long elapsedMillis;
+        private final boolean errored;
+
+        ResourceTiming(String address, String action, long elapsedMillis, boolean errored) {
+            this.address = address;
+            this.action = action;
+            this.elapsedMillis = elapsedMillis;
+            this.errored = errored;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public boolean isErrored() {
+            return errored;
+        }
+
+        @Override
+        public String toString() {
+            return address + ": " + action + (errored ? " errored after " : " took ") + (elapsedMillis / 1000) + "s";
+        }
+    }
+}
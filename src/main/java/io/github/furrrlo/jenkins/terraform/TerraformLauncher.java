@@ -1,22 +1,32 @@
 package io.github.furrrlo.jenkins.terraform;
 
+import hudson.Extension;
+import hudson.model.Computer;
 import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
 import hudson.slaves.JNLPLauncher;
 import hudson.slaves.SlaveComputer;
+import jenkins.util.Timer;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class TerraformLauncher extends JNLPLauncher {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TerraformLauncher.class);
-    // Report progress every 30 seconds
-    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toMillis(30L);
+    private static final Map<String, CompletableFuture<Void>> CONNECTIONS = new ConcurrentHashMap<>();
+    private static final long DEFAULT_AGENT_TIMEOUT_MINUTES = 10;
 
     private boolean launched;
+    private transient boolean connecting;
 
     @DataBoundConstructor
     public TerraformLauncher(String tunnel) {
@@ -27,6 +37,22 @@ public class TerraformLauncher extends JNLPLauncher {
         super(enableWorkDir);
     }
 
+    /**
+     * Returns a future which is completed when the given agent connects for the first time,
+     * or completed exceptionally if it does not connect before the agent timeout.
+     */
+    public static CompletableFuture<Void> getConnectionFuture(String nodeName) {
+        return CONNECTIONS.computeIfAbsent(nodeName, k -> new CompletableFuture<>());
+    }
+
+    static void removeConnectionFuture(String nodeName, CompletableFuture<Void> connection) {
+        CONNECTIONS.remove(nodeName, connection);
+    }
+
+    public synchronized boolean isLaunched() {
+        return launched;
+    }
+
     @Override
     public boolean isLaunchSupported() {
         return !launched;
@@ -37,10 +63,8 @@ public class TerraformLauncher extends JNLPLauncher {
         if (!(computer instanceof TerraformComputer))
             throw new IllegalArgumentException("This Launcher can be used only with TerraformComputer");
 
-        final TerraformComputer kubernetesComputer = (TerraformComputer) computer;
-        computer.setAcceptingTasks(false);
-
-        final TerraformAgent node = kubernetesComputer.getNode();
+        final TerraformComputer terraformComputer = (TerraformComputer) computer;
+        final TerraformAgent node = terraformComputer.getNode();
         if (node == null)
             throw new IllegalStateException("Node has been removed, cannot launch " + computer.getName());
 
@@ -50,58 +74,70 @@ public class TerraformLauncher extends JNLPLauncher {
             return;
         }
 
-        try {
-            // The terraform command to create the node was already run, we just need to wait for the agent to connect
-            long waitForAgentToConnect = TimeUnit.MINUTES.toSeconds(node.getCloud().getAgentTimeoutMinutes());
-            long waitedForAgent;
-
-            SlaveComputer slaveComputer = null;
-            long lastReportTimestamp = System.currentTimeMillis();
-            for (waitedForAgent = 0; waitedForAgent < waitForAgentToConnect; waitedForAgent++) {
-                slaveComputer = node.getComputer();
-
-                if (slaveComputer == null)
-                    throw new IllegalStateException("Node was deleted, computer is null");
-
-                if (slaveComputer.isOnline())
-                    break;
-
-                if (lastReportTimestamp + REPORT_INTERVAL < System.currentTimeMillis()) {
-                    LOGGER.info("Waiting for agent to connect ({}/{}): {}",
-                            waitedForAgent, waitForAgentToConnect, node.getId());
-                    listener.getLogger().printf("Waiting for agent to connect (%s/%s): %s%n",
-                            waitedForAgent, waitForAgentToConnect, node.getId());
-                    lastReportTimestamp = System.currentTimeMillis();
-                }
+        if (connecting)
+            return;
 
+        // The terraform command to create the node was already run, we just need to wait for the agent to connect
+        computer.setAcceptingTasks(false);
+        connecting = true;
+
+        final TerraformCloud cloud = node.getCloud();
+        final long timeoutMinutes = cloud != null ? cloud.getAgentTimeoutMinutes() : DEFAULT_AGENT_TIMEOUT_MINUTES;
+        final CompletableFuture<Void> connection = getConnectionFuture(node.getNodeName());
+        final ScheduledFuture<?> timeout = Timer.get().schedule(
+                () -> connection.completeExceptionally(new TimeoutException(
+                        "Agent did not connect after " + timeoutMinutes + " minutes")),
+                timeoutMinutes, TimeUnit.MINUTES);
+
+        LOGGER.info("Waiting for agent to connect: {}", node.getNodeName());
+        listener.getLogger().printf("Waiting for agent to connect: %s%n", node.getNodeName());
+        connection.whenComplete((v, t) -> {
+            timeout.cancel(false);
+            CONNECTIONS.remove(node.getNodeName(), connection);
+            onConnectionCompleted(computer, node, t);
+        });
+
+        // The agent might have already connected before we started listening
+        if (computer.isOnline())
+            connection.complete(null);
+    }
+
+    private synchronized void onConnectionCompleted(SlaveComputer computer, TerraformAgent node, Throwable ex) {
+        connecting = false;
+        if (ex != null) {
+            LOGGER.error("Error in provisioning; agent={}, template={}", node, node.getTemplateName(), ex);
+            Computer.threadPoolForRemoting.submit(() -> {
                 try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    throw new IllegalStateException("Interrupted while waiting for the agent to connect", e);
+                    node.terminate();
+                } catch (IOException | InterruptedException e) {
+                    LOGGER.warn("Unable to remove Jenkins node", e);
                 }
-            }
+            });
+            return;
+        }
 
-            if (slaveComputer == null || slaveComputer.isOffline())
-                throw new IllegalStateException("Agent did not connect after " + waitedForAgent + " seconds");
+        computer.setAcceptingTasks(true);
+        launched = true;
+        try {
+            // We need to persist the "launched" setting...
+            node.save();
+        } catch (IOException e) {
+            LOGGER.warn("Could not save() agent", e);
+        }
+    }
 
-            computer.setAcceptingTasks(true);
-            launched = true;
-            try {
-                // We need to persist the "launched" setting...
-                node.save();
-            } catch (IOException e) {
-                LOGGER.warn("Could not save() agent", e);
-            }
-        } catch (Throwable ex) {
-            LOGGER.error("Error in provisioning; agent={}, template={}", node, node.getTemplate());
-
-            try {
-                node.terminate();
-            } catch (IOException | InterruptedException e) {
-                LOGGER.warn("Unable to remove Jenkins node", e);
-            }
-
-            throw new RuntimeException(ex);
+    @Extension
+    @SuppressWarnings("unused")
+    public static final class ConnectionListener extends ComputerListener {
+
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            if (!(c instanceof TerraformComputer))
+                return;
+
+            final CompletableFuture<Void> connection = CONNECTIONS.get(c.getName());
+            if (connection != null)
+                connection.complete(null);
         }
     }
 }
@@ -0,0 +1,72 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Computer;
+import hudson.model.TransientComputerActionFactory;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Shows the output of the Terraform commands run to provision an agent on its computer page.
+ */
+public class TerraformLogAction implements Action {
+
+    private final TerraformComputer computer;
+
+    public TerraformLogAction(TerraformComputer computer) {
+        this.computer = computer;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return computer.hasPermission(Computer.CONFIGURE) ? "clipboard.png" : null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Terraform Log";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "terraformLog";
+    }
+
+    @SuppressWarnings("unused")
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        // Terraform output might contain sensitive values
+        computer.checkPermission(Computer.CONFIGURE);
+
+        final TerraformAgent node = computer.getNode();
+        final File logFile = node != null ? node.getLogFile() : null;
+        if (logFile == null || !logFile.isFile()) {
+            rsp.sendError(StaplerResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        rsp.setContentType("text/plain;charset=UTF-8");
+        try (OutputStream os = rsp.getOutputStream()) {
+            Files.copy(logFile.toPath(), os);
+        }
+    }
+
+    @Extension
+    @SuppressWarnings("unused")
+    public static final class Factory extends TransientComputerActionFactory {
+
+        @Override
+        public Collection<? extends Action> createFor(Computer target) {
+            if (!(target instanceof TerraformComputer))
+                return Collections.emptyList();
+            return Collections.singletonList(new TerraformLogAction((TerraformComputer) target));
+        }
+    }
+}
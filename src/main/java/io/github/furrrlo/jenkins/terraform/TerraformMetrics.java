@@ -0,0 +1,247 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provisioning latency metrics, keyed by cloud and template and exposed in the Prometheus text format.
+ */
+public class TerraformMetrics {
+
+    private static final TerraformMetrics INSTANCE = new TerraformMetrics();
+    private static final double[] BUCKETS_SECONDS = { 1, 5, 10, 30, 60, 120, 300, 600, 1200, 1800, 3600 };
+
+    public enum Phase {
+        INIT, GET, APPLY, CONNECT, DESTROY;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final Map<Key, Histogram> phaseDurations = new ConcurrentHashMap<>();
+    private final Map<Key, AtomicLong> phaseFailures = new ConcurrentHashMap<>();
+    private final Map<Key, Histogram> queueToOnline = new ConcurrentHashMap<>();
+    private final Map<Key, AtomicInteger> provisionsInFlight = new ConcurrentHashMap<>();
+    private final Map<Key, AtomicInteger> destroysInFlight = new ConcurrentHashMap<>();
+    private final Map<Key, AtomicInteger> processesQueued = new ConcurrentHashMap<>();
+    private final Map<Key, Histogram> processWaits = new ConcurrentHashMap<>();
+
+    private TerraformMetrics() {
+    }
+
+    public static TerraformMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records the duration of a phase, started at the given {@link System#nanoTime()}.
+     */
+    public void observe(Phase phase, String cloudName, String templateName, long startNanos, boolean success) {
+        final Key key = new Key(cloudName, templateName, phase.label());
+        phaseDurations.computeIfAbsent(key, k -> new Histogram()).observe(secondsSince(startNanos));
+        if (!success)
+            phaseFailures.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    public void observeQueueToOnline(String cloudName, String templateName, long startNanos) {
+        queueToOnline.computeIfAbsent(new Key(cloudName, templateName, null), k -> new Histogram())
+                .observe(secondsSince(startNanos));
+    }
+
+    public void provisionStarted(String cloudName, String templateName) {
+        provisionsInFlight.computeIfAbsent(new Key(cloudName, templateName, null), k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    public void provisionEnded(String cloudName, String templateName) {
+        provisionsInFlight.computeIfAbsent(new Key(cloudName, templateName, null), k -> new AtomicInteger()).decrementAndGet();
+    }
+
+    public void destroyStarted(String cloudName, String templateName) {
+        destroysInFlight.computeIfAbsent(new Key(cloudName, templateName, null), k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    public void destroyEnded(String cloudName, String templateName) {
+        destroysInFlight.computeIfAbsent(new Key(cloudName, templateName, null), k -> new AtomicInteger()).decrementAndGet();
+    }
+
+    public void processQueued(String cloudName, String templateName, TerraformProcessScheduler.Priority priority) {
+        processesQueued.computeIfAbsent(Key.ofPriority(cloudName, templateName, priority), k -> new AtomicInteger())
+                .incrementAndGet();
+    }
+
+    public void processDequeued(String cloudName, String templateName, TerraformProcessScheduler.Priority priority, long startNanos) {
+        final Key key = Key.ofPriority(cloudName, templateName, priority);
+        processesQueued.computeIfAbsent(key, k -> new AtomicInteger()).decrementAndGet();
+        processWaits.computeIfAbsent(key, k -> new Histogram()).observe(secondsSince(startNanos));
+    }
+
+    private static double secondsSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    public void writePrometheus(PrintWriter w) {
+        writeHistograms(w, "terraform_cloud_phase_duration_seconds",
+                "Duration of each provisioning phase", phaseDurations);
+        writeValues(w, "terraform_cloud_phase_failures_total", "counter",
+                "Number of failed provisioning phases", phaseFailures);
+        writeHistograms(w, "terraform_cloud_queue_to_online_seconds",
+                "Time from when an agent is planned to when it comes online", queueToOnline);
+        writeValues(w, "terraform_cloud_provisions_in_flight", "gauge",
+                "Number of provisions currently in progress", provisionsInFlight);
+        writeValues(w, "terraform_cloud_destroys_in_flight", "gauge",
+                "Number of destroys currently pending or in progress", destroysInFlight);
+        writeValues(w, "terraform_cloud_process_queue_depth", "gauge",
+                "Number of Terraform processes waiting to be started", processesQueued);
+        writeHistograms(w, "terraform_cloud_process_wait_seconds",
+                "Time Terraform processes waited to be started", processWaits);
+        w.printf("# HELP terraform_cloud_processes_running Number of Terraform processes currently running%n");
+        w.printf("# TYPE terraform_cloud_processes_running gauge%n");
+        w.printf("terraform_cloud_processes_running %d%n", TerraformProcessScheduler.get().getRunning());
+    }
+
+    private static void writeHistograms(PrintWriter w, String name, String help, Map<Key, Histogram> histograms) {
+        w.printf("# HELP %s %s%n", name, help);
+        w.printf("# TYPE %s histogram%n", name);
+        new TreeMap<>(histograms).forEach((key, histogram) -> {
+            final long[] buckets;
+            final long count;
+            final double sum;
+            synchronized (histogram) {
+                buckets = histogram.buckets.clone();
+                count = histogram.count;
+                sum = histogram.sum;
+            }
+
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS_SECONDS.length; i++) {
+                cumulative += buckets[i];
+                w.printf("%s_bucket{%s,le=\"%s\"} %d%n", name, key.labels(), BUCKETS_SECONDS[i], cumulative);
+            }
+            w.printf("%s_bucket{%s,le=\"+Inf\"} %d%n", name, key.labels(), count);
+            w.printf("%s_sum{%s} %s%n", name, key.labels(), sum);
+            w.printf("%s_count{%s} %d%n", name, key.labels(), count);
+        });
+    }
+
+    private static void writeValues(PrintWriter w, String name, String type, String help, Map<Key, ? extends Number> values) {
+        w.printf("# HELP %s %s%n", name, help);
+        w.printf("# TYPE %s %s%n", name, type);
+        new TreeMap<>(values).forEach((key, value) -> w.printf("%s{%s} %d%n", name, key.labels(), value.longValue()));
+    }
+
+    private static final class Histogram {
+
+        private final long[] buckets = new long[BUCKETS_SECONDS.length];
+        private long count;
+        private double sum;
+
+        synchronized void observe(double seconds) {
+            for (int i = 0; i < BUCKETS_SECONDS.length; i++) {
+                if (seconds <= BUCKETS_SECONDS[i]) {
+                    buckets[i]++;
+                    break;
+                }
+            }
+            count++;
+            sum += seconds;
+        }
+    }
+
+    private static final class Key implements Comparable<Key> {
+
+        private final String cloudName;
+        private final String templateName;
+        private final String phase;
+        private final String priority;
+
+        Key(String cloudName, String templateName, String phase) {
+            this(cloudName, templateName, phase, null);
+        }
+
+        private Key(String cloudName, String templateName, String phase, String priority) {
+            this.cloudName = cloudName;
+            this.templateName = templateName;
+            this.phase = phase;
+            this.priority = priority;
+        }
+
+        static Key ofPriority(String cloudName, String templateName, TerraformProcessScheduler.Priority priority) {
+            return new Key(cloudName, templateName, null, priority.name().toLowerCase(Locale.ROOT));
+        }
+
+        String labels() {
+            return "cloud=\"" + escape(cloudName) + "\",template=\"" + escape(templateName) + '"' +
+                    (phase != null ? ",phase=\"" + phase + '"' : "") +
+                    (priority != null ? ",priority=\"" + priority + '"' : "");
+        }
+
+        private static String escape(String value) {
+            return String.valueOf(value)
+                    .replace("\\", "\\\\")
+                    .replace("\"", "\\\"")
+                    .replace("\n", "\\n");
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            return labels().compareTo(o.labels());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return Objects.equals(cloudName, key.cloudName) &&
+                    Objects.equals(templateName, key.templateName) &&
+                    Objects.equals(phase, key.phase) &&
+                    Objects.equals(priority, key.priority);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(cloudName, templateName, phase, priority);
+        }
+    }
+
+    @Extension
+    @SuppressWarnings("unused")
+    public static final class MetricsAction implements RootAction {
+
+        @Override
+        public String getIconFileName() {
+            return null;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Terraform Cloud Metrics";
+        }
+
+        @Override
+        public String getUrlName() {
+            return "terraform-cloud-metrics";
+        }
+
+        public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+            Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+
+            rsp.setContentType("text/plain; version=0.0.4; charset=utf-8");
+            try (PrintWriter w = rsp.getWriter()) {
+                TerraformMetrics.get().writePrometheus(w);
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import hudson.slaves.AbstractCloudComputer;
+import org.jenkinsci.plugins.durabletask.executors.OnceRetentionStrategy;
+
+/**
+ * Terminates one-shot agents after their task or after being idle for a while, except for the ones needed
+ * to keep the warm pool full or kept for a pre-warm.
+ */
+public class TerraformOnceRetentionStrategy extends OnceRetentionStrategy {
+
+    public TerraformOnceRetentionStrategy(int idleMinutes) {
+        super(idleMinutes);
+    }
+
+    @Override
+    public long check(AbstractCloudComputer c) {
+        if (c instanceof TerraformComputer && TerraformWarmPool.isKeptWarm((TerraformComputer) c))
+            return 1;
+        return super.check(c);
+    }
+}
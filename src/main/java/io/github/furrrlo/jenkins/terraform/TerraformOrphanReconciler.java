@@ -0,0 +1,163 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Recovers the agents work dirs which are not tracked by anything anymore, e.g. because the
+ * controller went down while an agent was being provisioned or terminated.
+ * <p>
+ * Orphans which still have a state are re-attached as new nodes, so that their agent can connect again
+ * (and they get destroyed if it doesn't), or directly queued for destruction if that's not possible.
+ */
+public class TerraformOrphanReconciler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TerraformOrphanReconciler.class);
+
+    private static final String OWNER_FILE_NAME = "terraform-cloud-plugin.owner";
+    private static final String OWNER_CLOUD = "cloud";
+    private static final String OWNER_TEMPLATE = "template";
+
+    private TerraformOrphanReconciler() {
+    }
+
+    /**
+     * Records which cloud and template a work dir belongs to, so that it can be recovered after a crash.
+     */
+    static void recordOwner(File workDir, String cloudName, String templateName) throws IOException {
+        final Properties owner = new Properties();
+        owner.setProperty(OWNER_CLOUD, cloudName);
+        owner.setProperty(OWNER_TEMPLATE, templateName);
+        try (Writer writer = Files.newBufferedWriter(new File(workDir, OWNER_FILE_NAME).toPath(), StandardCharsets.UTF_8)) {
+            owner.store(writer, null);
+        }
+    }
+
+    @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+    @SuppressWarnings("unused")
+    public static void reconcileOnStartup() {
+        // Don't delay startup, destroys are run in the background by the destroy queue anyway
+        Timer.get().submit(() -> {
+            try {
+                reconcile();
+            } catch (Throwable t) {
+                LOGGER.error("Failed to reconcile orphaned Terraform work dirs", t);
+            }
+        });
+    }
+
+    static void reconcile() {
+        final Jenkins jenkins = Jenkins.get();
+        final Set<String> tracked = new HashSet<>();
+        for (Node node : jenkins.getNodes()) {
+            if (node instanceof TerraformAgent && ((TerraformAgent) node).getWorkDirPath() != null)
+                tracked.add(((TerraformAgent) node).getWorkDirPath());
+        }
+
+        final File[] workDirs = LocalTerraformInstallation.getWorkDirsRoot(jenkins.getRootDir()).listFiles(File::isDirectory);
+        if (workDirs != null) {
+            for (File workDir : workDirs) {
+                final String agentName = workDir.getName();
+                if (tracked.contains(workDir.getAbsolutePath()) ||
+                        TerraformInstanceRegistry.get().isTracked(agentName) ||
+                        TerraformDestroyQueue.get().isQueued(workDir) ||
+                        TerraformSuspendedPool.get().isSuspended(workDir))
+                    continue;
+
+                try {
+                    reconcileOrphan(workDir, agentName);
+                } catch (Throwable t) {
+                    LOGGER.error("Failed to reconcile orphaned Terraform work dir {}", workDir, t);
+                }
+            }
+        }
+
+        // Agents which were being added to or removed from a batch are simply
+        // reconciled by applying the ones which are actually registered
+        for (Cloud cloud : jenkins.clouds) {
+            if (!(cloud instanceof TerraformCloud))
+                continue;
+
+            for (TerraformAgentTemplate template : ((TerraformCloud) cloud).getTemplates()) {
+                final File batchDir = new File(LocalTerraformInstallation.getBatchWorkDirsRoot(jenkins.getRootDir()),
+                        cloud.name + '-' + template.getName());
+                if (template.isBatchMode() && LocalTerraformInstallation.getStateFile(batchDir).exists())
+                    TerraformBatch.get(cloud.name, template.getName()).reconcile();
+            }
+        }
+    }
+
+    private static void reconcileOrphan(File workDir, String agentName) throws Exception {
+        final Properties owner = readOwner(workDir);
+        // Work dirs created before owners were recorded are named after their agent, which is made of both
+        final String cloudName = owner.getProperty(OWNER_CLOUD, TerraformAgentName.getCloudName(agentName));
+        final String templateName = owner.getProperty(OWNER_TEMPLATE, TerraformAgentName.getTemplateName(agentName));
+        if (cloudName == null || templateName == null) {
+            LOGGER.warn("Found orphaned Terraform work dir {} with unknown owner, it needs to be cleaned up manually", workDir);
+            return;
+        }
+
+        final Cloud cloud = Jenkins.get().getCloud(cloudName);
+        final TerraformAgentTemplate template = cloud instanceof TerraformCloud ?
+                ((TerraformCloud) cloud).getTemplate(templateName) :
+                null;
+        if (template == null || template.isBatchMode()) {
+            // The destroy queue reports what's missing and keeps retrying in case the config comes back
+            LOGGER.warn("Found orphaned Terraform agent {} of missing template {}, queueing destroy", agentName, templateName);
+            TerraformDestroyQueue.get().enqueue(cloudName, templateName, agentName, workDir, null);
+            return;
+        }
+
+        final TerraformCloud terraformCloud = (TerraformCloud) cloud;
+        if (!LocalTerraformInstallation.getStateFile(workDir).exists() ||
+                !template.tryReserveInstance(cloudName, agentName)) {
+            LOGGER.info("Found orphaned Terraform agent {}, queueing destroy", agentName);
+            TerraformDestroyQueue.get().enqueue(cloudName, templateName, agentName, workDir, null);
+            return;
+        }
+
+        // The agent secret only depends on its name, so an agent which is still running can connect again.
+        // If it doesn't, the launcher terminates it after the agent timeout, which then destroys it
+        LOGGER.info("Found orphaned Terraform agent {}, re-attaching it", agentName);
+        final TerraformAgent agent;
+        try {
+            agent = new TerraformAgent(null, agentName, terraformCloud, template, workDir);
+            terraformCloud.addAgent(agent);
+        } catch (Throwable t) {
+            TerraformInstanceRegistry.get().release(agentName);
+            throw t;
+        }
+
+        final Computer computer = agent.toComputer();
+        if (computer != null)
+            computer.connect(false);
+    }
+
+    private static Properties readOwner(File workDir) throws IOException {
+        final Properties owner = new Properties();
+        final File ownerFile = new File(workDir, OWNER_FILE_NAME);
+        if (ownerFile.isFile()) {
+            try (Reader reader = Files.newBufferedReader(ownerFile.toPath(), StandardCharsets.UTF_8)) {
+                owner.load(reader);
+            }
+        }
+        return owner;
+    }
+}
@@ -0,0 +1,134 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Label;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts provisioning Terraform agents for a label right away, e.g. ahead of a parallel stage,
+ * so that their infrastructure is created while the earlier stages are still running.
+ * <p>
+ * Returns the number of executors which are being provisioned.
+ */
+public class TerraformPrewarmStep extends Step {
+
+    private final String label;
+    private final int count;
+    private int ttlMinutes = 15;
+
+    @DataBoundConstructor
+    public TerraformPrewarmStep(String label, int count) {
+        this.label = Util.fixEmptyAndTrim(label);
+        this.count = count;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getTtlMinutes() {
+        return ttlMinutes;
+    }
+
+    @DataBoundSetter
+    public void setTtlMinutes(int ttlMinutes) {
+        this.ttlMinutes = ttlMinutes;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new Execution(this, context);
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient TerraformPrewarmStep step;
+
+        Execution(TerraformPrewarmStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected Integer run() throws Exception {
+            final TaskListener listener = getContext().get(TaskListener.class);
+            final Label label = step.label != null ? Jenkins.get().getLabel(step.label) : null;
+            final long ttlMillis = TimeUnit.MINUTES.toMillis(Math.max(1, step.ttlMinutes));
+
+            int provisioned = 0;
+            for (Cloud cloud : Jenkins.get().clouds) {
+                if (provisioned >= step.count)
+                    break;
+
+                if (cloud instanceof TerraformCloud)
+                    provisioned += ((TerraformCloud) cloud).prewarm(label, step.count - provisioned, ttlMillis);
+            }
+
+            listener.getLogger().printf("Pre-warming Terraform agents with %d/%d executors for label %s for %d minutes%n",
+                    provisioned, step.count, step.label != null ? step.label : "<none>", step.ttlMinutes);
+            return provisioned;
+        }
+    }
+
+    @Extension
+    @SuppressWarnings("unused")
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "terraformPrewarm";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Pre-warm Terraform agents";
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Collections.singleton(TaskListener.class);
+        }
+
+        public FormValidation doCheckCount(@QueryParameter String count) {
+            try {
+                if (Integer.parseInt(count) <= 0)
+                    return FormValidation.error("Must be a positive number");
+            } catch (NumberFormatException e) {
+                return FormValidation.error("Must be a number");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckTtlMinutes(@QueryParameter String ttlMinutes) {
+            try {
+                if (Integer.parseInt(ttlMinutes) <= 0)
+                    return FormValidation.error("Must be a positive number");
+            } catch (NumberFormatException e) {
+                return FormValidation.error("Must be a number");
+            }
+            return FormValidation.ok();
+        }
+    }
+}
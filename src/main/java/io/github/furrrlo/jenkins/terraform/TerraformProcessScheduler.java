@@ -0,0 +1,161 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import jenkins.util.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Controller-wide scheduler of the Terraform processes.
+ * <p>
+ * Bounds how many processes run at once and only admits new ones if there's enough available memory.
+ * Waiting processes are admitted by priority and, within the same priority, the cloud and template with
+ * the least running processes goes first, so that a burst on one template doesn't starve the others.
+ */
+public class TerraformProcessScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TerraformProcessScheduler.class);
+
+    private static final int MAX_PROCESSES = SystemProperties.getInteger(
+            TerraformProcessScheduler.class.getName() + ".maxProcesses",
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private static final long MIN_AVAILABLE_MEMORY_BYTES = SystemProperties.getLong(
+            TerraformProcessScheduler.class.getName() + ".minAvailableMemoryMb", 512L) * 1024 * 1024;
+    // Available memory is polled, as nothing notifies when it frees up
+    private static final long MEMORY_RECHECK_MILLIS = 1000;
+    private static final Path MEMINFO = Paths.get("/proc/meminfo");
+
+    private static final TerraformProcessScheduler INSTANCE = new TerraformProcessScheduler();
+
+    /** Ordered from the most important one, destroys free resources so they go first */
+    public enum Priority {
+        DESTROY, APPLY, INIT
+    }
+
+    private final List<Request> waiting = new ArrayList<>();
+    private final Map<String, Integer> runningByKey = new HashMap<>();
+    private int running;
+    private long sequence;
+
+    private TerraformProcessScheduler() {
+    }
+
+    public static TerraformProcessScheduler get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Waits until a new process can be started, returning a handle which needs to be closed once it exits.
+     */
+    public Closeable acquire(Priority priority, String cloudName, String templateName) throws InterruptedException {
+        final TerraformMetrics metrics = TerraformMetrics.get();
+        final long startNanos = System.nanoTime();
+        final Request request;
+        synchronized (this) {
+            request = new Request(priority, cloudName + '/' + templateName, sequence++);
+            waiting.add(request);
+        }
+        metrics.processQueued(cloudName, templateName, priority);
+
+        try {
+            synchronized (this) {
+                while (!(isNext(request) && canAdmit())) {
+                    if (isNext(request) && running < MAX_PROCESSES)
+                        wait(MEMORY_RECHECK_MILLIS);
+                    else
+                        wait();
+                }
+
+                waiting.remove(request);
+                running++;
+                runningByKey.merge(request.key, 1, Integer::sum);
+                // Others might be next now
+                notifyAll();
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                waiting.remove(request);
+                notifyAll();
+            }
+            throw e;
+        } finally {
+            metrics.processDequeued(cloudName, templateName, priority, startNanos);
+        }
+
+        return () -> release(request);
+    }
+
+    private synchronized void release(Request request) {
+        running--;
+        runningByKey.computeIfPresent(request.key, (k, v) -> v > 1 ? v - 1 : null);
+        notifyAll();
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    private boolean isNext(Request request) {
+        return waiting.stream()
+                .min(Comparator.<Request, Priority>comparing(r -> r.priority)
+                        .thenComparingInt(r -> runningByKey.getOrDefault(r.key, 0))
+                        .thenComparingLong(r -> r.sequence))
+                .orElse(null) == request;
+    }
+
+    private boolean canAdmit() {
+        if (running >= MAX_PROCESSES)
+            return false;
+        // Always let one through, otherwise nothing could ever run on a low memory controller
+        if (running == 0)
+            return true;
+
+        final long available = getAvailableMemory();
+        if (available >= MIN_AVAILABLE_MEMORY_BYTES)
+            return true;
+
+        LOGGER.debug("Delaying Terraform process, only {}MB of memory available", available / 1024 / 1024);
+        return false;
+    }
+
+    private static long getAvailableMemory() {
+        // MemAvailable also accounts for the reclaimable caches, unlike the free memory
+        if (Files.isReadable(MEMINFO)) {
+            try {
+                for (String line : Files.readAllLines(MEMINFO, StandardCharsets.US_ASCII)) {
+                    if (line.startsWith("MemAvailable:"))
+                        return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                }
+            } catch (IOException | NumberFormatException e) {
+                LOGGER.debug("Failed to read {}", MEMINFO, e);
+            }
+        }
+
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getFreePhysicalMemorySize();
+        return Long.MAX_VALUE;
+    }
+
+    private static final class Request {
+
+        private final Priority priority;
+        private final String key;
+        private final long sequence;
+
+        Request(Priority priority, String key, long sequence) {
+            this.priority = priority;
+            this.key = key;
+            this.sequence = sequence;
+        }
+    }
+}
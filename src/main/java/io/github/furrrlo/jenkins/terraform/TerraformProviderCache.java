@@ -0,0 +1,216 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Controller-wide Terraform provider plugin cache, shared by all the agents work dirs.
+ * <p>
+ * Terraform does not guarantee the cache to be safe for concurrent writes, so every init
+ * which might populate it needs to be done while holding {@link #lock()}.
+ */
+public class TerraformProviderCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TerraformProviderCache.class);
+
+    private static final String CACHE_DIR_NAME = "terraform-cloud-plugin-cache";
+    private static final String PLUGINS_DIR_NAME = "plugins";
+    private static final String GOLDEN_DIR_NAME = "golden";
+    private static final String PROVIDERS_DIR = ".terraform" + File.separator + "providers";
+    // hostname/namespace/type/version
+    private static final int VERSION_DIR_DEPTH = 4;
+
+    private static final long MAX_SIZE_BYTES = SystemProperties.getLong(
+            TerraformProviderCache.class.getName() + ".maxSizeMb", 4096L) * 1024 * 1024;
+
+    private static final TerraformProviderCache INSTANCE = new TerraformProviderCache();
+
+    private final Lock lock = new ReentrantLock();
+
+    private TerraformProviderCache() {
+    }
+
+    public static TerraformProviderCache get() {
+        return INSTANCE;
+    }
+
+    public File getRootDir() {
+        return new File(Jenkins.get().getRootDir(), CACHE_DIR_NAME);
+    }
+
+    public File getPluginsDir() {
+        return new File(getRootDir(), PLUGINS_DIR_NAME);
+    }
+
+    public File getGoldenDir(String cloudName, String templateName) {
+        return new File(getRootDir(), GOLDEN_DIR_NAME + File.separator + cloudName + "-" + templateName);
+    }
+
+    public void configureEnvironment(Map<String, String> environment) throws IOException {
+        final File pluginsDir = getPluginsDir();
+        Files.createDirectories(pluginsDir.toPath());
+        environment.put("TF_PLUGIN_CACHE_DIR", pluginsDir.getAbsolutePath());
+        // Starting from 1.4, Terraform does not use the cache if there's no lock file already
+        environment.put("TF_PLUGIN_CACHE_MAY_BREAK_DEPENDENCY_LOCK_FILE", "true");
+    }
+
+    public Closeable lock() {
+        lock.lock();
+        return lock::unlock;
+    }
+
+    /**
+     * Bumps the last used time of all the provider versions linked in the given work dir,
+     * so that they are the last ones to be evicted.
+     */
+    public void markUsed(File workDir) {
+        final Path pluginsDir = getPluginsDir().toPath();
+        final FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        for (Path version : listVersionDirs(workDir.toPath().resolve(PROVIDERS_DIR))) {
+            final Path cached = pluginsDir.resolve(version);
+            try {
+                if (Files.isDirectory(cached))
+                    Files.setLastModifiedTime(cached, now);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to mark cached provider {} as used", cached, e);
+            }
+        }
+    }
+
+    public void evict() throws IOException {
+        final Path pluginsDir = getPluginsDir().toPath();
+        if (!Files.isDirectory(pluginsDir))
+            return;
+
+        try (Closeable ignored = lock()) {
+            final Map<Path, Long> sizes = new HashMap<>();
+            long totalSize = 0;
+            for (Path version : listVersionDirs(pluginsDir)) {
+                final long size = sizeOf(pluginsDir.resolve(version));
+                sizes.put(version, size);
+                totalSize += size;
+            }
+
+            if (totalSize <= MAX_SIZE_BYTES)
+                return;
+
+            final Set<Path> inUse = new HashSet<>();
+            final List<File> workDirs = new ArrayList<>();
+            final File[] agentWorkDirs = LocalTerraformInstallation.getWorkDirsRoot(Jenkins.get().getRootDir()).listFiles();
+            if (agentWorkDirs != null)
+                workDirs.addAll(Arrays.asList(agentWorkDirs));
+            final File[] templateGoldenDirs = new File(getRootDir(), GOLDEN_DIR_NAME).listFiles();
+            if (templateGoldenDirs != null)
+                for (File templateGoldenDir : templateGoldenDirs) {
+                    final File[] goldenWorkDirs = templateGoldenDir.listFiles();
+                    if (goldenWorkDirs != null)
+                        workDirs.addAll(Arrays.asList(goldenWorkDirs));
+                }
+
+            for (File workDir : workDirs)
+                inUse.addAll(listVersionDirs(workDir.toPath().resolve(PROVIDERS_DIR)));
+
+            final List<Path> candidates = sizes.keySet().stream()
+                    .filter(v -> !inUse.contains(v))
+                    .sorted(Comparator.comparingLong(v -> lastModified(pluginsDir.resolve(v))))
+                    .collect(Collectors.toList());
+            for (Path version : candidates) {
+                if (totalSize <= MAX_SIZE_BYTES)
+                    break;
+
+                LOGGER.info("Evicting cached Terraform provider {}", version);
+                LocalTerraformInstallation.deleteRecursively(pluginsDir.resolve(version));
+                totalSize -= sizes.get(version);
+            }
+        }
+    }
+
+    private static List<Path> listVersionDirs(Path providersDir) {
+        if (!Files.isDirectory(providersDir))
+            return Collections.emptyList();
+
+        try (Stream<Path> paths = Files.walk(providersDir, VERSION_DIR_DEPTH)) {
+            return paths
+                    .filter(p -> providersDir.relativize(p).getNameCount() == VERSION_DIR_DEPTH)
+                    .filter(Files::isDirectory)
+                    .map(providersDir::relativize)
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            LOGGER.warn("Failed to list Terraform providers in {}", providersDir, e);
+            return Collections.emptyList();
+        }
+    }
+
+    private static long sizeOf(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+    @SuppressWarnings("unused")
+    public static void prewarm() {
+        Timer.get().submit(() -> {
+            for (Cloud cloud : Jenkins.get().clouds) {
+                if (!(cloud instanceof TerraformCloud))
+                    continue;
+
+                for (TerraformAgentTemplate template : ((TerraformCloud) cloud).getTemplates()) {
+                    try {
+                        template.prewarm((TerraformCloud) cloud);
+                    } catch (Throwable t) {
+                        LOGGER.warn("Failed to pre-warm Terraform template {}", template.getName(), t);
+                    }
+                }
+            }
+        });
+    }
+
+    @Extension
+    @SuppressWarnings("unused")
+    public static final class EvictionWork extends AsyncPeriodicWork {
+
+        public EvictionWork() {
+            super("Terraform provider cache eviction");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return HOUR;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException {
+            TerraformProviderCache.get().evict();
+        }
+    }
+}
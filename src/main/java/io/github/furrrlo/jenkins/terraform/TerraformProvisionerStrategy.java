@@ -0,0 +1,104 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.model.LoadStatistics;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueListener;
+import hudson.slaves.Cloud;
+import hudson.slaves.CloudProvisioningListener;
+import hudson.slaves.NodeProvisioner;
+import jenkins.model.Jenkins;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+
+/**
+ * Provisions agents for the Terraform clouds which enable it as soon as there is queued work,
+ * instead of waiting for the standard strategy exponentially-smoothed load statistics to pick it up.
+ */
+@Extension(ordinal = 100)
+@SuppressWarnings("unused")
+public class TerraformProvisionerStrategy extends NodeProvisioner.Strategy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TerraformProvisionerStrategy.class);
+
+    @Override
+    public @NonNull NodeProvisioner.StrategyDecision apply(@NonNull NodeProvisioner.StrategyState state) {
+        final Label label = state.getLabel();
+        final LoadStatistics.LoadStatisticsSnapshot snapshot = state.getSnapshot();
+
+        // Planned capacity includes the agents which are already being provisioned
+        int availableCapacity = snapshot.getAvailableExecutors() +
+                snapshot.getConnectingExecutors() +
+                state.getPlannedCapacitySnapshot() +
+                state.getAdditionalPlannedCapacity();
+        final int currentDemand = snapshot.getQueueLength();
+        if (availableCapacity >= currentDemand)
+            return NodeProvisioner.StrategyDecision.PROVISIONING_COMPLETED;
+
+        for (Cloud cloud : Jenkins.get().clouds) {
+            if (!(cloud instanceof TerraformCloud) || !((TerraformCloud) cloud).isImmediateProvisioning())
+                continue;
+
+            final Cloud.CloudState cloudState = new Cloud.CloudState(label, state.getAdditionalPlannedCapacity());
+            if (!cloud.canProvision(cloudState))
+                continue;
+
+            // Honour the same vetoes as the standard strategy
+            final int workload = currentDemand - availableCapacity;
+            final CauseOfBlockage blockage = getBlockage(cloud, cloudState, workload);
+            if (blockage != null) {
+                LOGGER.debug("Not immediately provisioning for label {} on cloud {}: {}",
+                        label, cloud.name, blockage.getShortDescription());
+                continue;
+            }
+
+            final Collection<NodeProvisioner.PlannedNode> plannedNodes = cloud.provision(cloudState, workload);
+            LOGGER.debug("Immediately provisioning {} nodes for label {}", plannedNodes.size(), label);
+            for (CloudProvisioningListener listener : CloudProvisioningListener.all())
+                listener.onStarted(cloud, label, plannedNodes);
+
+            state.recordPendingLaunches(plannedNodes);
+            availableCapacity += plannedNodes.stream().mapToInt(n -> n.numExecutors).sum();
+            if (availableCapacity >= currentDemand)
+                return NodeProvisioner.StrategyDecision.PROVISIONING_COMPLETED;
+        }
+
+        return NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+    }
+
+    private static CauseOfBlockage getBlockage(Cloud cloud, Cloud.CloudState cloudState, int workload) {
+        for (CloudProvisioningListener listener : CloudProvisioningListener.all()) {
+            final CauseOfBlockage blockage = listener.canProvision(cloud, cloudState, workload);
+            if (blockage != null)
+                return blockage;
+        }
+        return null;
+    }
+
+    /**
+     * Triggers a provisioning review as soon as an item which can be built by a Terraform cloud
+     * enters the queue, instead of waiting for the next periodic one.
+     */
+    @Extension
+    public static final class ReviewTrigger extends QueueListener {
+
+        @Override
+        public void onEnterBuildable(Queue.BuildableItem item) {
+            final Jenkins jenkins = Jenkins.get();
+            final Label label = item.getAssignedLabel();
+            for (Cloud cloud : jenkins.clouds) {
+                if (cloud instanceof TerraformCloud &&
+                        ((TerraformCloud) cloud).isImmediateProvisioning() &&
+                        cloud.canProvision(new Cloud.CloudState(label, 0))) {
+                    (label == null ? jenkins.unlabeledNodeProvisioner : label.nodeProvisioner).suggestReviewNow();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ProcessTree;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+import jenkins.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the Terraform commands of a work dir on an agent matching a label instead of on the controller.
+ * <p>
+ * The controller keeps owning the work dirs and their states: before each command the work dir is copied
+ * to a mirror on the agent, and afterwards everything but the initialized .terraform dir is copied back
+ * and removed from the agent, so that no state or secret is left there.
+ */
+public class TerraformRemoteExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TerraformRemoteExecutor.class);
+
+    private static final String WORK_DIRS_NAME = "terraform-cloud-plugin-executor";
+    private static final String PLUGINS_DIR_NAME = "terraform-cloud-plugin-cache" + File.separator + "plugins";
+    private static final String DOT_TERRAFORM_DIR_NAME = ".terraform";
+    private static final long POLL_MILLIS = 1000;
+    private static final long KILL_GRACE_MINUTES = 5;
+    // Set on remote processes, so that they can be found to be interrupted
+    private static final String COOKIE_VARIABLE = "TERRAFORM_CLOUD_PLUGIN_PROCESS";
+    // Plugin caches of the agents, which are never held while waiting for a process slot
+    private static final Map<String, Lock> REMOTE_CACHE_LOCKS = new ConcurrentHashMap<>();
+
+    private final String labelString;
+
+    public TerraformRemoteExecutor(String labelString) {
+        this.labelString = labelString;
+    }
+
+    /**
+     * Copies the work dir to an agent, initializing it there if needed.
+     */
+    public Execution prepare(LocalTerraformInstallation installation,
+                             File workDir,
+                             String excludes,
+                             String command) throws IOException, InterruptedException {
+        final Node node = selectNode(workDir);
+        final FilePath remoteDir = getRemoteDir(node, workDir);
+        final Launcher launcher = node.createLauncher(TaskListener.NULL);
+        final String executable = TerraformInstallationCache.get().resolveRemote(installation.getName(), node);
+
+        final EnvVars env = new EnvVars();
+        final FilePath pluginsDir = remoteRoot(node).child(PLUGINS_DIR_NAME);
+        pluginsDir.mkdirs();
+        env.put("TF_PLUGIN_CACHE_DIR", pluginsDir.getRemote());
+        env.put("TF_PLUGIN_CACHE_MAY_BREAK_DEPENDENCY_LOCK_FILE", "true");
+
+        remoteDir.mkdirs();
+        new FilePath(workDir).copyRecursiveTo("**/*", excludes, remoteDir);
+
+        // Explicit inits hold the cache of the agent until they finish
+        if ("init".equals(command))
+            return new Execution(node, remoteDir, launcher, executable, env, workDir, excludes, lockRemoteCache(node));
+
+        // Work dirs are only initialized on the controller when it runs the commands, so do it here
+        if (!remoteDir.child(DOT_TERRAFORM_DIR_NAME).exists()) {
+            LOGGER.info("Initializing Terraform work dir {} on {}", workDir, node.getNodeName());
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final int exitCode;
+            try (Closeable ignored = lockRemoteCache(node)) {
+                exitCode = launcher.launch()
+                        .cmds(executable, "init", "-no-color", "-input=false")
+                        .envs(env)
+                        .pwd(remoteDir)
+                        .stdout(output)
+                        .join();
+            }
+
+            if (exitCode != 0)
+                throw new IOException("Terraform init on " + node.getNodeName() + " exited with error code " + exitCode +
+                        ":\n" + output.toString(Charset.defaultCharset().name()));
+        }
+
+        return new Execution(node, remoteDir, launcher, executable, env, workDir, excludes, null);
+    }
+
+    /**
+     * Locks the plugin cache of the given agent. Callers already hold their process slot, so this needs to be
+     * a different lock than the one of the controller cache, which is held while waiting for a slot.
+     */
+    private static Closeable lockRemoteCache(Node node) {
+        final Lock lock = REMOTE_CACHE_LOCKS.computeIfAbsent(node.getNodeName(), k -> new ReentrantLock());
+        lock.lock();
+        return lock::unlock;
+    }
+
+    /**
+     * Removes the mirror of a deleted work dir.
+     */
+    public void cleanup(File workDir) {
+        try {
+            getRemoteDir(selectNode(workDir), workDir).deleteRecursive();
+        } catch (IOException | InterruptedException e) {
+            LOGGER.warn("Failed to remove the remote mirror of Terraform work dir {}", workDir, e);
+        }
+    }
+
+    /**
+     * Picks an online agent matching the label, always the same one for the same work dir
+     * while the matching agents don't change, so that its initialized mirror can be reused.
+     */
+    private Node selectNode(File workDir) throws IOException {
+        final Label label = Jenkins.get().getLabel(labelString);
+        final List<Node> nodes = label == null ? new ArrayList<>() : label.getNodes().stream()
+                .filter(n -> {
+                    final Computer computer = n.toComputer();
+                    return computer != null && computer.isOnline() && computer.getChannel() != null;
+                })
+                .sorted(Comparator.comparing(Node::getNodeName))
+                .collect(Collectors.toList());
+        if (nodes.isEmpty())
+            throw new IOException("No online node matching the Terraform executor label '" + labelString + "'");
+
+        return nodes.get(Math.floorMod(workDir.getName().hashCode(), nodes.size()));
+    }
+
+    private static FilePath remoteRoot(Node node) throws IOException {
+        final FilePath root = node.getRootPath();
+        if (root == null)
+            throw new IOException("Node " + node.getNodeName() + " is offline");
+        return root;
+    }
+
+    private static FilePath getRemoteDir(Node node, File workDir) throws IOException {
+        // Keep the same layout as in JENKINS_HOME, so that different kind of work dirs don't clash
+        final Path relative = Jenkins.get().getRootDir().toPath().relativize(workDir.toPath());
+        FilePath remoteDir = remoteRoot(node).child(WORK_DIRS_NAME);
+        for (Path part : relative)
+            remoteDir = remoteDir.child(part.toString());
+        return remoteDir;
+    }
+
+    public String getLabelString() {
+        return labelString;
+    }
+
+    public static final class Execution {
+
+        private final Node node;
+        private final FilePath remoteDir;
+        private final Launcher launcher;
+        private final String executable;
+        private final EnvVars env;
+        private final File workDir;
+        private final String excludes;
+        private final Closeable cacheLock;
+
+        private Execution(Node node,
+                          FilePath remoteDir,
+                          Launcher launcher,
+                          String executable,
+                          EnvVars env,
+                          File workDir,
+                          String excludes,
+                          Closeable cacheLock) {
+            this.node = node;
+            this.remoteDir = remoteDir;
+            this.launcher = launcher;
+            this.executable = executable;
+            this.env = env;
+            this.workDir = workDir;
+            this.excludes = excludes;
+            this.cacheLock = cacheLock;
+        }
+
+        /**
+         * Starts the given command, where the first argument is replaced with the remote executable.
+         */
+        public Process start(List<String> command) throws IOException {
+            final List<String> cmds = new ArrayList<>(command);
+            cmds.set(0, executable);
+            LOGGER.info("Launching Terraform command on {}: {}", node.getNodeName(), cmds);
+            final String cookie = UUID.randomUUID().toString();
+            final EnvVars processEnv = new EnvVars(env);
+            processEnv.put(COOKIE_VARIABLE, cookie);
+            return new RemoteProcess(launcher.launch()
+                    .cmds(cmds)
+                    .envs(processEnv)
+                    .pwd(remoteDir)
+                    .readStdout()
+                    .start(), launcher, cookie);
+        }
+
+        /**
+         * Copies the results back to the controller and removes everything but the .terraform dir from the agent.
+         */
+        public void finish() throws IOException, InterruptedException {
+            try {
+                remoteDir.copyRecursiveTo("**/*", excludes, new FilePath(workDir));
+            } finally {
+                try {
+                    for (FilePath child : remoteDir.list()) {
+                        if (!child.getName().equals(DOT_TERRAFORM_DIR_NAME))
+                            child.deleteRecursive();
+                    }
+                } finally {
+                    if (cacheLock != null)
+                        cacheLock.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Exposes a process started through a {@link Launcher} as a {@link Process}.
+     */
+    private static final class RemoteProcess extends Process {
+
+        private final Proc proc;
+        private final Launcher launcher;
+        private final String cookie;
+
+        RemoteProcess(Proc proc, Launcher launcher, String cookie) {
+            this.proc = proc;
+            this.launcher = launcher;
+            this.cookie = cookie;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return proc.getStdout();
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            try {
+                return proc.join();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (isAlive()) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return false;
+                Thread.sleep(Math.min(POLL_MILLIS, TimeUnit.NANOSECONDS.toMillis(remaining) + 1));
+            }
+            return true;
+        }
+
+        @Override
+        public int exitValue() {
+            if (isAlive())
+                throw new IllegalThreadStateException("Process hasn't exited");
+            try {
+                return proc.join();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Interrupts the process like a local one, so that Terraform stops gracefully and persists its state,
+         * and only kills it if it's still running after a while.
+         */
+        @Override
+        public void destroy() {
+            try {
+                final VirtualChannel channel = launcher.getChannel();
+                if (!launcher.isUnix() || channel == null) {
+                    destroyForcibly();
+                    return;
+                }
+
+                channel.call(new InterruptCallable(cookie));
+            } catch (IOException e) {
+                LOGGER.warn("Failed to interrupt remote Terraform process, killing it", e);
+                destroyForcibly();
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            Timer.get().schedule(() -> {
+                if (isAlive()) {
+                    LOGGER.warn("Remote Terraform process didn't stop after being interrupted, killing it");
+                    destroyForcibly();
+                }
+            }, KILL_GRACE_MINUTES, TimeUnit.MINUTES);
+        }
+
+        @Override
+        public Process destroyForcibly() {
+            try {
+                proc.kill();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to kill remote Terraform process", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return this;
+        }
+
+        @Override
+        public boolean isAlive() {
+            try {
+                return proc.isAlive();
+            } catch (IOException e) {
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Sends SIGINT to the processes started with the given cookie, as Ctrl-C would.
+     */
+    private static final class InterruptCallable extends MasterToSlaveCallable<Void, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String cookie;
+
+        InterruptCallable(String cookie) {
+            this.cookie = cookie;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            for (ProcessTree.OSProcess process : ProcessTree.get()) {
+                if (!cookie.equals(process.getEnvironmentVariables().get(COOKIE_VARIABLE)))
+                    continue;
+
+                try {
+                    new ProcessBuilder("kill", "-INT", String.valueOf(process.getPid())).start().waitFor();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while interrupting process " + process.getPid());
+                }
+            }
+            return null;
+        }
+    }
+}
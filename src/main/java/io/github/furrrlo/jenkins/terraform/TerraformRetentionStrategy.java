@@ -0,0 +1,21 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import hudson.slaves.AbstractCloudComputer;
+import hudson.slaves.CloudRetentionStrategy;
+
+/**
+ * Terminates agents after being idle for a while, except for the ones needed to keep the warm pool full.
+ */
+public class TerraformRetentionStrategy extends CloudRetentionStrategy {
+
+    public TerraformRetentionStrategy(int idleMinutes) {
+        super(idleMinutes);
+    }
+
+    @Override
+    public long check(AbstractCloudComputer c) {
+        if (c instanceof TerraformComputer && TerraformWarmPool.isKeptWarm((TerraformComputer) c))
+            return 1;
+        return super.check(c);
+    }
+}
@@ -0,0 +1,235 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent pool of the suspended instances of the templates which have suspend mode enabled.
+ * <p>
+ * Idle agents are suspended instead of being destroyed, so that they can be resumed before creating
+ * new instances, and are only destroyed after being suspended for the configured amount of time.
+ */
+public class TerraformSuspendedPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TerraformSuspendedPool.class);
+    private static final String POOL_FILE_NAME = TerraformSuspendedPool.class.getName() + ".xml";
+
+    private static final TerraformSuspendedPool INSTANCE = new TerraformSuspendedPool();
+
+    private final List<SuspendedInstance> instances = new ArrayList<>();
+    private boolean loaded;
+
+    private TerraformSuspendedPool() {
+    }
+
+    public static TerraformSuspendedPool get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Suspends the infrastructure of a terminated agent, destroying it if that fails.
+     * Needs to be called on a background thread, as it runs an apply.
+     */
+    public void suspend(TerraformCloud cloud, TerraformAgentTemplate template, TerraformAgent agent) {
+        final File workDir = new File(agent.getWorkDirPath());
+        try {
+            LOGGER.info("Suspending Terraform agent {}...", agent.getNodeName());
+            template.suspend(cloud, workDir, agent.getNodeName());
+        } catch (Throwable t) {
+            LOGGER.error("Failed to suspend Terraform agent {}, destroying it", agent.getNodeName(), t);
+            TerraformDestroyQueue.get().enqueue(cloud.name, template.getName(), agent.getNodeName(), workDir, agent.getId());
+            return;
+        }
+
+        synchronized (this) {
+            load();
+            instances.add(new SuspendedInstance(cloud.name, template.getName(), agent.getNodeName(),
+                    workDir.getAbsolutePath(), System.currentTimeMillis(), agent.getReuseCount(), agent.getCreatedAtMillis()));
+            save();
+        }
+    }
+
+    /**
+     * Takes the most recently suspended instance of the given template, which is then owned by the caller.
+     */
+    public synchronized @CheckForNull SuspendedInstance take(String cloudName, String templateName) {
+        load();
+        for (int i = instances.size() - 1; i >= 0; i--) {
+            final SuspendedInstance instance = instances.get(i);
+            if (instance.cloudName.equals(cloudName) && instance.templateName.equals(templateName)) {
+                instances.remove(i);
+                save();
+                return instance;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gives back an instance which was taken but couldn't be resumed.
+     */
+    public synchronized void restore(SuspendedInstance instance) {
+        load();
+        instances.add(instance);
+        save();
+    }
+
+    public synchronized boolean isSuspended(File workDir) {
+        load();
+        final String path = workDir.getAbsolutePath();
+        return instances.stream().anyMatch(instance -> instance.workDir.equals(path));
+    }
+
+    public synchronized int getSize() {
+        load();
+        return instances.size();
+    }
+
+    private void destroyExpired() {
+        final List<SuspendedInstance> expired = new ArrayList<>();
+        synchronized (this) {
+            load();
+            final long now = System.currentTimeMillis();
+            for (Iterator<SuspendedInstance> iter = instances.iterator(); iter.hasNext(); ) {
+                final SuspendedInstance instance = iter.next();
+                final TerraformAgentTemplate template = getTemplate(instance);
+                // Templates which don't exist anymore or disabled suspend mode don't get their instances back
+                if (template != null && template.getSuspendedTerminationInMinutes() > 0 &&
+                        now - instance.suspendedAtMillis < TimeUnit.MINUTES.toMillis(template.getSuspendedTerminationInMinutes()))
+                    continue;
+
+                iter.remove();
+                expired.add(instance);
+            }
+
+            if (!expired.isEmpty())
+                save();
+        }
+
+        for (SuspendedInstance instance : expired) {
+            LOGGER.info("Destroying Terraform agent {} suspended for too long", instance.agentName);
+            TerraformDestroyQueue.get().enqueue(instance.cloudName, instance.templateName,
+                    instance.agentName, new File(instance.workDir), null);
+        }
+    }
+
+    private static @CheckForNull TerraformAgentTemplate getTemplate(SuspendedInstance instance) {
+        final Cloud cloud = Jenkins.get().getCloud(instance.cloudName);
+        return cloud instanceof TerraformCloud ? ((TerraformCloud) cloud).getTemplate(instance.templateName) : null;
+    }
+
+    private synchronized void load() {
+        if (loaded)
+            return;
+
+        loaded = true;
+        final XmlFile file = getPoolFile();
+        if (!file.exists())
+            return;
+
+        try {
+            final Instances persisted = (Instances) file.read();
+            if (persisted.instances != null)
+                instances.addAll(persisted.instances);
+        } catch (IOException e) {
+            LOGGER.error("Failed to load the Terraform suspended pool", e);
+        }
+    }
+
+    private synchronized void save() {
+        try {
+            getPoolFile().write(new Instances(new ArrayList<>(instances)));
+        } catch (IOException e) {
+            LOGGER.error("Failed to save the Terraform suspended pool", e);
+        }
+    }
+
+    private static XmlFile getPoolFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.get().getRootDir(), POOL_FILE_NAME));
+    }
+
+    private static final class Instances {
+
+        private final List<SuspendedInstance> instances;
+
+        Instances(List<SuspendedInstance> instances) {
+            this.instances = instances;
+        }
+    }
+
+    public static final class SuspendedInstance {
+
+        private final String cloudName;
+        private final String templateName;
+        private final String agentName;
+        private final String workDir;
+        private final long suspendedAtMillis;
+        private final int reuseCount;
+        private final long createdAtMillis;
+
+        SuspendedInstance(String cloudName,
+                          String templateName,
+                          String agentName,
+                          String workDir,
+                          long suspendedAtMillis,
+                          int reuseCount,
+                          long createdAtMillis) {
+            this.cloudName = cloudName;
+            this.templateName = templateName;
+            this.agentName = agentName;
+            this.workDir = workDir;
+            this.suspendedAtMillis = suspendedAtMillis;
+            this.reuseCount = reuseCount;
+            this.createdAtMillis = createdAtMillis;
+        }
+
+        public String getAgentName() {
+            return agentName;
+        }
+
+        public File getWorkDir() {
+            return new File(workDir);
+        }
+
+        public int getReuseCount() {
+            return reuseCount;
+        }
+
+        public long getCreatedAtMillis() {
+            return createdAtMillis;
+        }
+    }
+
+    @Extension
+    @SuppressWarnings("unused")
+    public static final class ExpirationWork extends AsyncPeriodicWork {
+
+        public ExpirationWork() {
+            super("Terraform suspended agents expiration");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            TerraformSuspendedPool.get().destroyExpired();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import jenkins.util.SystemProperties;
+
+import java.util.*;
+
+/**
+ * Spreads the agents to provision across all the templates matching a label.
+ * <p>
+ * Each template gets a share proportional to its configured weight, to its recent success rate and to
+ * how fast its recent provisions were, so that demand moves away from templates which are currently slow
+ * or failing. Recent provisions are kept in a rolling window for each template.
+ */
+public class TerraformTemplateSelector {
+
+    private static final int WINDOW_SIZE = SystemProperties.getInteger(
+            TerraformTemplateSelector.class.getName() + ".windowSize", 20);
+    private static final int MIN_PERCENTILE_SAMPLES = 5;
+
+    private static final TerraformTemplateSelector INSTANCE = new TerraformTemplateSelector();
+
+    private final Map<String, Window> windows = new HashMap<>();
+
+    private TerraformTemplateSelector() {
+    }
+
+    public static TerraformTemplateSelector get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records the outcome of a provision, from when it was planned to when the agent came online or failed.
+     */
+    public synchronized void record(String cloudName, String templateName, long durationMillis, boolean success) {
+        windows.computeIfAbsent(key(cloudName, templateName), k -> new Window()).add(durationMillis, success);
+    }
+
+    /**
+     * Returns the given percentile of the latencies of the recent successful provisions of a template,
+     * or -1 if there aren't enough of them yet.
+     */
+    public synchronized long getLatencyPercentile(String cloudName, String templateName, int percentile) {
+        final Window window = windows.get(key(cloudName, templateName));
+        return window != null ? window.successfulPercentileMillis(percentile) : -1;
+    }
+
+    public Selection select(String cloudName, List<TerraformAgentTemplate> templates) {
+        final Map<TerraformAgentTemplate, Double> latencies = new LinkedHashMap<>();
+        final Map<TerraformAgentTemplate, Double> successRates = new HashMap<>();
+        synchronized (this) {
+            for (TerraformAgentTemplate template : templates) {
+                final Window window = windows.get(key(cloudName, template.getName()));
+                latencies.put(template, window != null ? window.meanSuccessfulMillis() : Double.NaN);
+                successRates.put(template, window != null ? window.successRate() : 1D);
+            }
+        }
+
+        // Templates without successful provisions yet are assumed to be as fast as the average one
+        final double defaultLatency = latencies.values().stream()
+                .filter(l -> !Double.isNaN(l))
+                .mapToDouble(Double::doubleValue)
+                .average()
+                .orElse(1D);
+
+        final Map<TerraformAgentTemplate, Double> scores = new LinkedHashMap<>();
+        latencies.forEach((template, latency) -> scores.put(template, template.getWeight() *
+                successRates.get(template) /
+                Math.max(1D, Double.isNaN(latency) ? defaultLatency : latency)));
+        return new Selection(scores);
+    }
+
+    private static String key(String cloudName, String templateName) {
+        return cloudName + '/' + templateName;
+    }
+
+    /**
+     * Smooth weighted round-robin over the scores of the candidate templates, so that even a burst
+     * provisioned in a single round is spread proportionally.
+     */
+    public static final class Selection {
+
+        private final Map<TerraformAgentTemplate, Double> scores;
+        private final Map<TerraformAgentTemplate, Double> current = new HashMap<>();
+
+        private Selection(Map<TerraformAgentTemplate, Double> scores) {
+            this.scores = scores;
+        }
+
+        public @CheckForNull TerraformAgentTemplate next() {
+            final double total = scores.values().stream().mapToDouble(Double::doubleValue).sum();
+            TerraformAgentTemplate selected = null;
+            double selectedCurrent = Double.NEGATIVE_INFINITY;
+            for (Map.Entry<TerraformAgentTemplate, Double> entry : scores.entrySet()) {
+                final double value = current.merge(entry.getKey(), entry.getValue(), Double::sum);
+                if (value > selectedCurrent) {
+                    selected = entry.getKey();
+                    selectedCurrent = value;
+                }
+            }
+
+            if (selected != null)
+                current.put(selected, selectedCurrent - total);
+            return selected;
+        }
+
+        /**
+         * Stops selecting the given template, e.g. because it reached its instance cap.
+         */
+        public void exclude(TerraformAgentTemplate template) {
+            scores.remove(template);
+            current.remove(template);
+        }
+    }
+
+    private static final class Window {
+
+        private final long[] durations = new long[WINDOW_SIZE];
+        private final boolean[] successes = new boolean[WINDOW_SIZE];
+        private int next;
+        private int size;
+
+        void add(long durationMillis, boolean success) {
+            durations[next] = durationMillis;
+            successes[next] = success;
+            next = (next + 1) % WINDOW_SIZE;
+            size = Math.min(size + 1, WINDOW_SIZE);
+        }
+
+        double meanSuccessfulMillis() {
+            long sum = 0;
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (successes[i]) {
+                    sum += durations[i];
+                    count++;
+                }
+            }
+            return count == 0 ? Double.NaN : sum / (double) count;
+        }
+
+        long successfulPercentileMillis(int percentile) {
+            final List<Long> successful = new ArrayList<>();
+            for (int i = 0; i < size; i++)
+                if (successes[i])
+                    successful.add(durations[i]);
+            if (successful.size() < MIN_PERCENTILE_SAMPLES)
+                return -1;
+
+            Collections.sort(successful);
+            final int index = (int) Math.ceil(percentile / 100D * successful.size()) - 1;
+            return successful.get(Math.max(0, Math.min(successful.size() - 1, index)));
+        }
+
+        double successRate() {
+            int count = 0;
+            for (int i = 0; i < size; i++)
+                if (successes[i])
+                    count++;
+            // Smoothed, so that a failing template still gets the occasional agent
+            return (count + 1) / (double) (size + 2);
+        }
+    }
+}
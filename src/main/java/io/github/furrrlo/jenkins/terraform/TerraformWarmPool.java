@@ -0,0 +1,192 @@
+package io.github.furrrlo.jenkins.terraform;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps between min and max idle connected agents ready for each template which has a warm pool configured,
+ * where the min idle agents can change over time as computed by {@link TerraformCapacityPlanner}.
+ */
+public class TerraformWarmPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TerraformWarmPool.class);
+
+    private TerraformWarmPool() {
+    }
+
+    /**
+     * Whether the given computer is needed to keep the warm pool of its template full,
+     * and therefore should not be terminated for being idle.
+     */
+    public static boolean isKeptWarm(TerraformComputer computer) {
+        final TerraformAgent agent = computer.getNode();
+        if (agent == null)
+            return false;
+
+        final TerraformAgentTemplate template = agent.getTemplate();
+        final TerraformCloud cloud = agent.getCloud();
+        if (cloud == null || template == null || !computer.isIdle())
+            return false;
+
+        if (!template.isWarmPoolEnabled() && !TerraformCapacityPlanner.get().hasPrewarm(cloud.name, template.getName()))
+            return false;
+
+        return getIdleComputers(agent.getCloudName(), agent.getTemplateName()).size() <=
+                TerraformCapacityPlanner.get().getMinIdle(cloud, template);
+    }
+
+    public static void reconcileSoon() {
+        Timer.get().submit(TerraformWarmPool::reconcile);
+    }
+
+    public static synchronized void reconcile() {
+        for (Cloud cloud : Jenkins.get().clouds) {
+            if (!(cloud instanceof TerraformCloud))
+                continue;
+
+            final TerraformCloud terraformCloud = (TerraformCloud) cloud;
+            for (TerraformAgentTemplate template : terraformCloud.getTemplates()) {
+                final TerraformCapacityPlanner planner = TerraformCapacityPlanner.get();
+                final int expiredPrewarms = planner.takeExpiredPrewarms(terraformCloud.name, template.getName());
+                if (!template.isWarmPoolEnabled() && template.getMaxIdle() <= 0 && expiredPrewarms <= 0 &&
+                        !planner.hasPrewarm(terraformCloud.name, template.getName()))
+                    continue;
+
+                try {
+                    reconcile(terraformCloud, template, expiredPrewarms);
+                } catch (Throwable t) {
+                    LOGGER.error("Failed to reconcile warm pool of template {}", template.getName(), t);
+                }
+            }
+        }
+    }
+
+    private static void reconcile(TerraformCloud cloud, TerraformAgentTemplate template, int expiredPrewarms) {
+        final List<TerraformComputer> idle = getIdleComputers(cloud.name, template.getName());
+        final int starting = getStartingCount(cloud.name, template.getName());
+        final int pending = TerraformInstanceRegistry.get().getPendingCount(cloud.name, template.getName());
+
+        final int minIdle = TerraformCapacityPlanner.get().getMinIdle(cloud, template);
+        int provisioned = 0;
+        for (int i = idle.size() + starting + pending; i < minIdle; i++) {
+            if (!cloud.tryProvision(template))
+                break;
+            provisioned++;
+        }
+        if (provisioned > 0)
+            LOGGER.info("Provisioning {} agents for the warm pool of template {}", provisioned, template.getName());
+
+        // The min idle agents can be raised above the max idle ones by schedules, forecasts and pre-warms,
+        // and pre-warmed agents which were never used are released as soon as their TTL expires
+        final int exceeding = Math.max(
+                template.getMaxIdle() > 0 ? idle.size() - Math.max(template.getMaxIdle(), minIdle) : 0,
+                Math.min(expiredPrewarms, idle.size() - minIdle));
+        if (exceeding <= 0)
+            return;
+
+        // Terminate the ones which have been idle for the longest time first
+        idle.sort(Comparator.comparingLong(Computer::getIdleStartMilliseconds));
+        for (TerraformComputer computer : idle.subList(0, exceeding)) {
+            computer.setAcceptingTasks(false);
+            if (!computer.isIdle()) {
+                computer.setAcceptingTasks(true);
+                continue;
+            }
+
+            final TerraformAgent agent = computer.getNode();
+            if (agent == null)
+                continue;
+
+            LOGGER.info("Terminating agent {} exceeding the warm pool of template {}", agent.getNodeName(), template.getName());
+            Computer.threadPoolForRemoting.submit(() -> {
+                try {
+                    agent.terminate();
+                } catch (IOException | InterruptedException e) {
+                    LOGGER.warn("Unable to remove Jenkins node", e);
+                }
+            });
+        }
+    }
+
+    static List<TerraformComputer> getIdleComputers(String cloudName, String templateName) {
+        final List<TerraformComputer> idle = new ArrayList<>();
+        for (TerraformAgent agent : getAgents(cloudName, templateName)) {
+            final Computer computer = agent.toComputer();
+            if (computer instanceof TerraformComputer && computer.isOnline() && computer.isIdle() && computer.isAcceptingTasks())
+                idle.add((TerraformComputer) computer);
+        }
+        return idle;
+    }
+
+    /**
+     * Returns how many agents of the given template were already added but are still booting or connecting,
+     * which are not pending anymore but will be idle soon.
+     */
+    static int getStartingCount(String cloudName, String templateName) {
+        int starting = 0;
+        for (TerraformAgent agent : getAgents(cloudName, templateName)) {
+            final Computer computer = agent.toComputer();
+            if (computer == null || (!computer.isOnline() && computer.isAcceptingTasks()))
+                starting++;
+        }
+        return starting;
+    }
+
+    /**
+     * Returns how many executors of the agents of the given template are running a task.
+     */
+    static int getBusyExecutors(String cloudName, String templateName) {
+        int busy = 0;
+        for (TerraformAgent agent : getAgents(cloudName, templateName)) {
+            final Computer computer = agent.toComputer();
+            if (computer != null)
+                busy += computer.countBusy();
+        }
+        return busy;
+    }
+
+    private static List<TerraformAgent> getAgents(String cloudName, String templateName) {
+        final List<TerraformAgent> agents = new ArrayList<>();
+        for (Node node : Jenkins.get().getNodes()) {
+            if (!(node instanceof TerraformAgent))
+                continue;
+
+            final TerraformAgent agent = (TerraformAgent) node;
+            if (agent.getCloudName().equals(cloudName) && agent.getTemplateName().equals(templateName))
+                agents.add(agent);
+        }
+        return agents;
+    }
+
+    @Extension
+    @SuppressWarnings("unused")
+    public static final class Reconciler extends AsyncPeriodicWork {
+
+        public Reconciler() {
+            super("Terraform warm pool reconciler");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            reconcile();
+        }
+    }
+}
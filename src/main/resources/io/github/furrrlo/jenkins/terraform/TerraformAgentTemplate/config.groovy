@@ -60,3 +60,47 @@ f.entry(field: 'idleTerminationInMinutes', title: _('Idle termination time')) {
 f.entry(field: 'instanceCap', title: _('Instance cap')) {
     f.textbox(default: '2')
 }
+
+f.entry(field: 'maxConcurrentApplies', title: _('Max concurrent applies'), description: '0 means unlimited') {
+    f.textbox(default: '0')
+}
+
+f.entry(field: 'batchMode', title: _('Batch mode'), description: 'Provision all the agents of this template with a single Terraform state') {
+    f.checkbox()
+}
+
+f.entry(field: 'jsonOutput', title: _('Machine-readable output'), description: 'Run apply and destroy with -json to track how long each resource takes (requires Terraform 0.15.3+)') {
+    f.checkbox()
+}
+
+f.entry(field: 'minIdle', title: _('Min idle agents'), description: 'Number of idle agents to keep ready in the warm pool') {
+    f.textbox(default: '0')
+}
+
+f.entry(field: 'maxIdle', title: _('Max idle agents'), description: 'Idle agents exceeding this number are terminated, 0 means unlimited') {
+    f.textbox(default: '0')
+}
+
+f.entry(field: 'maxReuses', title: _('Max reuses'), description: 'Number of times the infrastructure of a one-shot agent is registered again as a fresh agent instead of being destroyed, 0 disables recycling') {
+    f.textbox(default: '0')
+}
+
+f.entry(field: 'maxReuseAgeMinutes', title: _('Max reuse age'), description: 'Minutes after which the infrastructure of a one-shot agent is not recycled anymore, 0 means unlimited') {
+    f.textbox(default: '0')
+}
+
+f.entry(field: 'suspendedTerminationInMinutes', title: _('Suspended termination time'), description: 'Suspend terminated agents with jenkins_agent_suspended = true and destroy them after being suspended for this many minutes, 0 disables suspend mode') {
+    f.textbox(default: '0')
+}
+
+f.entry(field: 'weight', title: _('Weight'), description: 'Relative share of the agents provisioned from this template when several templates match the same label') {
+    f.textbox(default: '1')
+}
+
+f.entry(field: 'predictiveScaling', title: _('Predictive scaling'), description: 'Keep idle agents ready ahead of the queue demand expected for this hour of the week, forecast from the previous weeks') {
+    f.checkbox()
+}
+
+f.entry(field: 'capacitySchedule', title: _('Capacity schedule'), description: 'One window per line, as a cron spec followed by the number of idle agents to keep ready while it matches, e.g. "* 7-9 * * 1-5 4"') {
+    f.textarea()
+}
@@ -14,6 +14,22 @@ f.entry(field: 'agentTimeoutMinutes', title: _('Agent timeout in minutes')) {
     f.textbox(default: '10')
 }
 
+f.entry(field: 'maxConcurrentApplies', title: _('Max concurrent applies'), description: '0 means unlimited') {
+    f.textbox(default: '0')
+}
+
+f.entry(field: 'immediateProvisioning', title: _('Provision immediately'), description: 'Start provisioning as soon as jobs are queued, without waiting for the load statistics to pick them up') {
+    f.checkbox()
+}
+
+f.entry(field: 'executorLabel', title: _('Terraform executor label'), description: 'Run Terraform on agents matching this label instead of on the controller, leave empty to run it on the controller') {
+    f.textbox()
+}
+
+f.entry(field: 'hedgingPercentile', title: _('Hedging percentile'), description: 'Provision a second agent when one takes longer than this percentile of the recent provisioning times of its template, keeping the first one which comes online, 0 disables hedging') {
+    f.textbox(default: '0')
+}
+
 f.entry(title: _('Templates'), description: 'List of Terraform templates which can be used to launch agents') {
     // Defines a header so the repeats can be re-ordered
     f.repeatableProperty(field: 'templates', header: 'Template') {
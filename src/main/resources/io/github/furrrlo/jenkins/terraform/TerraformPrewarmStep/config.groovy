@@ -0,0 +1,15 @@
+package io.github.furrrlo.jenkins.terraform.TerraformPrewarmStep
+
+f = namespace('/lib/form')
+
+f.entry(field: 'label', title: _('Label'), description: 'Label of the agents to pre-warm') {
+    f.textbox()
+}
+
+f.entry(field: 'count', title: _('Executors'), description: 'Number of executors to provision agents for') {
+    f.textbox(default: '1')
+}
+
+f.entry(field: 'ttlMinutes', title: _('TTL'), description: 'Minutes after which the pre-warmed agents which were not used are released') {
+    f.textbox(default: '15')
+}